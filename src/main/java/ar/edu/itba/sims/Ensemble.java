@@ -0,0 +1,93 @@
+package ar.edu.itba.sims;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import ar.edu.itba.sims.models.Particle;
+import ar.edu.itba.sims.offheap.OffHeapEngine;
+import ar.edu.itba.sims.offheap.OffHeapState;
+import me.tongfei.progressbar.ProgressBar;
+
+/**
+ * Runs {@code replicas} independent copies of the input conditions in
+ * lockstep on a single off-heap state.
+ *
+ * Every line of the output holds the step, the ensemble mean of v_a, its
+ * standard error and the v_a of every replica.
+ */
+public abstract class Ensemble {
+    private static final String directoryPath = "src/main/resources/ensembles/";
+
+    public static void main(String[] args) throws IOException {
+        final var ic = InitialStateParser.parse(System.getProperty("input", "initial_conditions.json"));
+        final var K = ic.getReplicas();
+
+        final var random = ic.getSeed() == null ? new Random() : new Random(ic.getSeed());
+        final var replicas = new ArrayList<List<Particle>>(K);
+        for (int r = 0; r < K; r++) {
+            replicas.add(InitialStateParser.buildInitialState(ic, random));
+        }
+
+        final var mapping = ic.getMapping() == null ? null : Path.of(ic.getMapping());
+        final var state = new OffHeapState(replicas, ic.getL(), ic.getR(), mapping, ic.getPrecision());
+        final var engine = new OffHeapEngine(state, ic.getInteraction(), ic.getR(), ic.getNoise(), ic.getSeed());
+
+        final var directory = new File(directoryPath);
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+
+        final var filename = "%s N-%d L-%.2f Ruido-%.2f K-%d.txt".formatted(ic.getInteraction(), ic.getN(), ic.getL(),
+                ic.getNoise(), K);
+        try (final var writer = new BufferedWriter(new FileWriter(Paths.get(directoryPath, filename).toString()));
+                final var pb = new ProgressBar("Simulating " + K + " replicas", ic.getSteps())) {
+            write(writer, 0, engine, K);
+
+            for (int step = 1; step <= ic.getSteps(); step++) {
+                engine.step();
+                write(writer, step, engine, K);
+                pb.stepTo(step);
+            }
+
+            state.flush(ic.getSteps());
+        } finally {
+            OffHeapEngine.shutdown();
+        }
+
+        System.out.println("Ensemble order parameter written to \"" + filename + '"');
+        if (Boolean.getBoolean("metrics")) {
+            System.out.print("Neighbour search " + engine.metrics());
+        }
+    }
+
+    private static void write(final BufferedWriter writer, final int step, final OffHeapEngine engine, final int K)
+            throws IOException {
+        double sum = 0.0;
+        double sumSq = 0.0;
+        for (int r = 0; r < K; r++) {
+            final var va = engine.orderParameter(r);
+            sum += va;
+            sumSq += va * va;
+        }
+
+        final var mean = sum / K;
+        final var error = K > 1 ? Math.sqrt(Math.max(0, sumSq / K - mean * mean) / (K - 1)) : 0;
+
+        final var sb = new StringBuilder();
+        sb.append(step).append(' ')
+                .append(String.format(Locale.ROOT, "%.16f %.16f", mean, error));
+        for (int r = 0; r < K; r++) {
+            sb.append(String.format(Locale.ROOT, " %.16f", engine.orderParameter(r)));
+        }
+
+        writer.write(sb.append('\n').toString());
+    }
+}
@@ -2,6 +2,8 @@ package ar.edu.itba.sims;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import ar.edu.itba.sims.output.OutputConditions;
+
 //Esta clase representa las condiciones iniciales que estan en initial_conditions.JSON
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -13,6 +15,12 @@ public class InitialConditions {
     private double noise;
     private int steps;
     private String interaction;
+    private String storage = "heap";
+    private String mapping;
+    private String precision = "double";
+    private int replicas = 1;
+    private Long seed;
+    private OutputConditions output = new OutputConditions();
 
     @Deprecated
     public InitialConditions(double r, double v, double L, int N, double noise, int steps) {
@@ -79,4 +87,52 @@ public class InitialConditions {
     public String getInteraction() {
         return interaction;
     }
+
+    public String getStorage() {
+        return storage;
+    }
+
+    public void setStorage(String storage) {
+        this.storage = storage;
+    }
+
+    public String getMapping() {
+        return mapping;
+    }
+
+    public void setMapping(String mapping) {
+        this.mapping = mapping;
+    }
+
+    public String getPrecision() {
+        return precision;
+    }
+
+    public void setPrecision(String precision) {
+        this.precision = precision;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(int replicas) {
+        this.replicas = replicas;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    public OutputConditions getOutput() {
+        return output;
+    }
+
+    public void setOutput(OutputConditions output) {
+        this.output = output;
+    }
 }
@@ -9,6 +9,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 //En esta clase se proveen utilidades para:
 //      construir un estado inicial a partir de parametros (output JSON)
@@ -29,14 +30,18 @@ public class InitialStateParser {
     }
 
     public static List<Particle> buildInitialState(InitialConditions ic){
+        return buildInitialState(ic, ic.getSeed() == null ? new Random() : new Random(ic.getSeed()));
+    }
+
+    public static List<Particle> buildInitialState(InitialConditions ic, Random random){
         List<Particle> particles = new ArrayList<>();
         for(int i = 0; i < ic.getN(); i++){
             particles.add(new Particle(
-                Math.random() * ic.getL(), //x
-                Math.random() * ic.getL(), //y
+                random.nextDouble() * ic.getL(), //x
+                random.nextDouble() * ic.getL(), //y
                 ic.getR(),                 //r
                 ic.getV(),                 //v
-                Math.random() * 2 * Math.PI //theta
+                random.nextDouble() * 2 * Math.PI //theta
             ));
         }
 
@@ -1,36 +1,74 @@
 package ar.edu.itba.sims;
 
 import ar.edu.itba.sims.models.Particle;
+import ar.edu.itba.sims.models.Particles;
 import ar.edu.itba.sims.neighbours.CIM;
+import ar.edu.itba.sims.offheap.OffHeapEngine;
+import ar.edu.itba.sims.output.OutputConditions;
+import ar.edu.itba.sims.output.Schedule;
 import me.tongfei.progressbar.ProgressBar;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
 
 public abstract class Main {
-    private static final int animation_step = 5;
     private static final String directoryPath = "src/main/resources/time_slices";
 
     public static void main(String[] args) throws IOException {
         final var ic = InitialStateParser.parse(System.getProperty("input", "initial_conditions.json"));
         final int resume = Integer.valueOf(args.length > 0 ? args[0] : "0");
 
+        final var output = ic.getOutput();
+        final var schedule = Schedule.of(output, ic.getSteps());
+        if (output.getSubsample() <= 0) {
+            throw new IllegalArgumentException("Output subsample must be positive");
+        }
+
+        final var cache = ResultCache.open();
+        if (resume == 0) {
+            final var cached = cache.trajectory(ic);
+            if (cached.isPresent()) {
+                ResultCache.clearSource(Path.of(directoryPath));
+                preparePath(directoryPath, false);
+                ResultCache.copy(cached.get(), Path.of(directoryPath));
+                ResultCache.recordSource(ic, Path.of(directoryPath));
+                System.out.println("Trajectory restored from cache");
+                return;
+            }
+        }
+
         final Simulator simulator;
         if (resume > 0) {
+            if (!schedule.includes(resume) || output.getSubsample() != 1 || output.getRegion() != null) {
+                throw new IllegalArgumentException("Step " + resume + " was not written as a full frame");
+            }
+
             System.out.println("Resuming simulation from step " + resume);
 
-            var particles = InitialStateParser.parseParticles(resume / animation_step);
+            var particles = InitialStateParser.parseParticles(schedule.frame(resume));
             simulator = new Simulator(particles, ic, resume);
         } else {
             var particles = InitialStateParser.buildInitialState(ic);
             simulator = new Simulator(particles, ic);
         }
 
-        simulate(simulator, resume > 0);
+        // Frames only record their input conditions once all of them are written. A resumed run reseeds its
+        // noise, so it does not reproduce the uninterrupted one and its frames are never recorded
+        ResultCache.clearSource(Path.of(directoryPath));
+        simulate(simulator, output, schedule, resume);
+        if (resume == 0) {
+            ResultCache.recordSource(ic, Path.of(directoryPath));
+        }
+
+        if (resume == 0 && Boolean.getBoolean("cache.trajectory")) {
+            cache.storeTrajectory(ic, Path.of(directoryPath));
+        }
     }
 
     private static void preparePath(String path, boolean preserve) {
@@ -46,36 +84,79 @@ public abstract class Main {
         }
     }
 
-    public static void simulate(final Simulator simulator, final boolean resume) throws IOException {
+    /**
+     * Runs a simulation, writing the frames selected by the schedule.
+     *
+     * @param simulator Simulator to run
+     * @param output    Particle filters applied to every frame
+     * @param schedule  Steps to write
+     * @param resume    Step the simulator starts from, whose frame is already
+     *                  written; 0 to start over
+     */
+    public static void simulate(final Simulator simulator, final OutputConditions output, final Schedule schedule,
+            final int resume) throws IOException {
         try (final var executor = Executors.newFixedThreadPool(3);
                 final var pb = new ProgressBar("Simulating", simulator.getSteps())) {
             final var iterator = simulator.iterator();
+            final var single = simulator.getPrecision().equals("single");
+            var frame = schedule.frame(resume);
 
-            preparePath(directoryPath, resume);
+            preparePath(directoryPath, resume > 0);
 
-            if (!resume) {
-                executor.submit(new Animator(0, simulator.getInitialState()));
-            } else if (iterator.hasNext()) {
-                // Skip the first iteration if resuming
-                iterator.next();
+            if (resume > 0) {
+                frame++;
+            } else if (schedule.includes(0)) {
+                executor.submit(new Animator(frame++, filter(Particles.of(simulator.getInitialState()), output), single));
             }
 
             while (iterator.hasNext()) {
                 final var iteration = iterator.next();
                 final var i = iteration.step();
 
-                if (i % animation_step == 0) {
-                    executor.submit(new Animator(i / animation_step, iteration.particles()));
+                if (schedule.includes(i)) {
+                    // Iterations are views over the engine state, filter copies them before handing them to another thread
+                    executor.submit(new Animator(frame++, filter(iteration.particles(), output), single));
+                    simulator.flush();
                 }
 
                 pb.stepTo(i);
             }
         } finally {
             CIM.shutdown();
+            OffHeapEngine.shutdown();
+        }
+
+        if (Boolean.getBoolean("metrics") && simulator.getMetrics() != null) {
+            System.out.print("Neighbour search " + simulator.getMetrics());
+        }
+    }
+
+    /**
+     * Keeps every {@code subsample}-th particle that lies in the region of
+     * interest.
+     *
+     * @return a copy of the kept particles
+     */
+    private static List<Particle> filter(final Particles particles, final OutputConditions output) {
+        final var region = output.getRegion();
+        final var subsample = output.getSubsample();
+
+        final var kept = new ArrayList<Particle>(particles.size() / subsample + 1);
+        // The region is checked through the indexed accessors, so only kept particles are built
+        for (int i = 0; i < particles.size(); i += subsample) {
+            if (region == null || region.contains(particles.getX(i), particles.getY(i))) {
+                kept.add(particles.get(i));
+            }
         }
+
+        return kept;
     }
 
-    private record Animator(int frame, List<Particle> particles) implements Runnable {
+    /**
+     * Writes a frame. Single precision states are written with float digits, so
+     * frames are not padded with digits the state never had.
+     */
+    private record Animator(int frame, List<Particle> particles, boolean single) implements Runnable {
         @Override
         public void run() {
             final var sb = new StringBuilder();
@@ -83,11 +164,19 @@ public abstract class Main {
 
             try (final var writer = new BufferedWriter(new FileWriter(path))) {
                 for (final var p : particles) {
-                    sb.append(p.getX()).append(" ")
-                            .append(p.getY()).append(" ")
-                            .append(p.getR()).append(" ")
-                            .append(p.getV()).append(" ")
-                            .append(p.getTheta()).append("\n");
+                    if (single) {
+                        sb.append((float) p.getX()).append(" ")
+                                .append((float) p.getY()).append(" ")
+                                .append((float) p.getR()).append(" ")
+                                .append((float) p.getV()).append(" ")
+                                .append((float) p.getTheta()).append("\n");
+                    } else {
+                        sb.append(p.getX()).append(" ")
+                                .append(p.getY()).append(" ")
+                                .append(p.getR()).append(" ")
+                                .append(p.getV()).append(" ")
+                                .append(p.getTheta()).append("\n");
+                    }
 
                     writer.write(sb.toString());
                     sb.setLength(0); // Clear the StringBuilder for the next particle
@@ -4,6 +4,8 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
@@ -12,10 +14,21 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import ar.edu.itba.sims.models.Vector;
+import ar.edu.itba.sims.output.Schedule;
 
 public class Observables {
-    public static void main(String[] args) {
-        final var folder = new File("src/main/resources/time_slices");
+    private static final String outputPath = "src/main/resources/order_parameter/";
+    private static final String framesPath = "src/main/resources/time_slices";
+
+    public static void main(String[] args) throws IOException {
+        final var ic = InitialStateParser.parse(System.getProperty("input", "initial_conditions.json"));
+        final var observables = new Observables(args[0], ic);
+
+        if (observables.restore()) {
+            return;
+        }
+
+        final var folder = new File(framesPath);
 
         if (!folder.exists() || !folder.isDirectory()) {
             System.err.println("time_slices does not exist or is not a directory.");
@@ -28,18 +41,40 @@ public class Observables {
             return;
         }
 
-        new Observables(args[0]).observe(files);
+        observables.observe(files);
     }
 
     private final Observer observer;
+    private final String observable;
+    private final InitialConditions ic;
+    private final ResultCache cache = ResultCache.open();
 
-    private Observables(final String observe) {
+    private Observables(final String observe, final InitialConditions ic) {
+        this.observable = observe;
+        this.ic = ic;
         observer = switch (observe) {
             case "v_a" -> this::v_a;
             default -> throw new IllegalArgumentException("Unknown observable: " + observe);
         };
     }
 
+    /**
+     * Copies the observable from the result cache, if it is there.
+     *
+     * @return whether the observable was restored
+     */
+    private boolean restore() throws IOException {
+        final var cached = cache.observable(ic, observable);
+        if (cached.isEmpty()) {
+            return false;
+        }
+
+        Files.createDirectories(Paths.get(outputPath));
+        ResultCache.copy(cached.get(), output());
+        System.out.println(observable + " restored from cache to \"" + output().getFileName() + '"');
+        return true;
+    }
+
     private void observe(final File[] files) {
         final var executor = Executors.newFixedThreadPool(12);
         try {
@@ -47,21 +82,48 @@ public class Observables {
         } finally {
             executor.shutdown();
         }
+
+        cache.storeObservable(ic, observable, output(), Path.of(framesPath));
     }
 
+    private Path output() {
+        final var filename = "%s N-%d L-%.2f Ruido-%.2f.txt".formatted(ic.getInteraction(), ic.getN(), ic.getL(), ic.getNoise());
+        return Paths.get(outputPath, filename);
+    }
+
+    /**
+     * Writes the step and v_a of every frame, one per line.
+     *
+     * @throws IllegalArgumentException if the frames are filtered by region,
+     *                                  since v_a of a region is not the order
+     *                                  parameter of the system
+     */
     private void v_a(final ExecutorService executor, final File[] files) {
-        final var ic = InitialStateParser.parse("initial_conditions.json");
         final var v = ic.getV();
+        final var output = ic.getOutput();
 
-        final var output = new ConcurrentHashMap<Integer, Double>(files.length + 1, 1.0f);
+        if (output.getRegion() != null) {
+            throw new IllegalArgumentException("v_a of frames filtered by region is not the order parameter");
+        }
+        if (output.getSubsample() > 1) {
+            System.err.println("Warning: v_a is estimated from every " + output.getSubsample() + "th particle");
+        }
+
+        final var steps = Schedule.of(output, ic.getSteps()).steps(ic.getSteps());
+        if (steps.length != files.length) {
+            throw new IllegalStateException("Found " + files.length + " frames but the output schedule writes "
+                    + steps.length);
+        }
+
+        final var orders = new ConcurrentHashMap<Integer, Double>(files.length + 1, 1.0f);
 
         final var latch = new CountDownLatch(files.length);
         for (final var file : files) {
             if (file.isFile()) {
                 executor.submit(() -> {
                     try {
-                        final var step = Integer.parseInt(file.getName().replace(".txt", ""));
-                        final var particles = InitialStateParser.parseParticles(step);
+                        final var frame = Integer.parseInt(file.getName().replace(".txt", ""));
+                        final var particles = InitialStateParser.parseParticles(frame);
 
                         final var avg = new Vector(0, 0);
                         for (final var p : particles) {
@@ -69,7 +131,7 @@ public class Observables {
                         }
 
                         final var orden = avg.getMagnitude() / (particles.size() * v);
-                        output.put(step, orden);
+                        orders.put(frame, orden);
                     } catch (Exception e) {
                         e.printStackTrace();
                     } finally {
@@ -79,18 +141,17 @@ public class Observables {
             }
         }
 
-        final var folder = "src/main/resources/order_parameter/";
-        final var directory = new File(folder);
+        final var directory = new File(outputPath);
         if (!directory.exists()) {
             directory.mkdirs();
         }
 
-        final var filename = "%s N-%d L-%.2f Ruido-%.2f.txt".formatted(ic.getInteraction(), ic.getN(), ic.getL(), ic.getNoise());
-        try (final var writer = new BufferedWriter(new FileWriter(Paths.get(folder, filename).toString()))) {
+        final var filename = output().getFileName();
+        try (final var writer = new BufferedWriter(new FileWriter(output().toString()))) {
             latch.await();
 
             for (int i = 0; i < files.length; i++) {
-                writer.write(String.format(Locale.ROOT, "%.16f\n", output.get(i)));
+                writer.write(String.format(Locale.ROOT, "%d %.16f\n", steps[i], orders.get(i)));
             }
         } catch (IOException | InterruptedException e) {
             e.printStackTrace();
@@ -0,0 +1,93 @@
+package ar.edu.itba.sims;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import ar.edu.itba.sims.models.Particle;
+import ar.edu.itba.sims.offheap.OffHeapEngine;
+import ar.edu.itba.sims.offheap.OffHeapState;
+
+/**
+ * Checks that single precision state reproduces the v_a statistics of double
+ * precision.
+ *
+ * Usage: {@code PrecisionStudy [transient] [tolerance]}. Runs the input
+ * conditions as an ensemble of {@code replicas} in both precisions from the
+ * same initial states. Trajectories diverge after a few steps, so what is
+ * compared is the steady-state mean of v_a, taken after the first
+ * {@code transient} fraction of the steps (0.5 by default). Precisions agree
+ * when their ensemble means differ by less than {@code tolerance} (0.02 by
+ * default) or three combined standard errors, whichever is larger.
+ */
+public abstract class PrecisionStudy {
+    public static void main(String[] args) throws IOException {
+        final var ic = InitialStateParser.parse(System.getProperty("input", "initial_conditions.json"));
+        final var transientFraction = args.length > 0 ? Double.parseDouble(args[0]) : 0.5;
+        final var tolerance = args.length > 1 ? Double.parseDouble(args[1]) : 0.02;
+
+        final var K = ic.getReplicas();
+        final var random = ic.getSeed() == null ? new Random() : new Random(ic.getSeed());
+        final var replicas = new ArrayList<List<Particle>>(K);
+        for (int r = 0; r < K; r++) {
+            replicas.add(InitialStateParser.buildInitialState(ic, random));
+        }
+
+        final var cutoff = (int) (ic.getSteps() * transientFraction);
+        try {
+            final var reference = run(ic, replicas, "double", cutoff);
+            final var single = run(ic, replicas, "single", cutoff);
+
+            final var difference = Math.abs(reference.mean() - single.mean());
+            final var allowed = Math.max(tolerance,
+                    3 * Math.hypot(reference.error(), single.error()));
+
+            System.out.println(String.format(Locale.ROOT, "|difference| = %.6f, allowed = %.6f: %s",
+                    difference, allowed, difference <= allowed ? "PASS" : "FAIL"));
+        } finally {
+            OffHeapEngine.shutdown();
+        }
+    }
+
+    private static Result run(final InitialConditions ic, final List<List<Particle>> replicas, final String precision,
+            final int cutoff) throws IOException {
+        final var K = replicas.size();
+        final var state = new OffHeapState(replicas, ic.getL(), ic.getR(), null, precision);
+        final var engine = new OffHeapEngine(state, ic.getInteraction(), ic.getR(), ic.getNoise(), ic.getSeed());
+
+        final var sums = new double[K];
+        final var start = System.nanoTime();
+        for (int step = 1; step <= ic.getSteps(); step++) {
+            engine.step();
+            if (step > cutoff) {
+                for (int r = 0; r < K; r++) {
+                    sums[r] += engine.orderParameter(r);
+                }
+            }
+        }
+        final var seconds = (System.nanoTime() - start) / 1e9;
+
+        // Every replica contributes one steady-state mean, the error is taken across replicas
+        double sum = 0.0;
+        double sumSq = 0.0;
+        for (int r = 0; r < K; r++) {
+            final var va = sums[r] / (ic.getSteps() - cutoff);
+            sum += va;
+            sumSq += va * va;
+        }
+
+        final var mean = sum / K;
+        final var std = K > 1 ? Math.sqrt(Math.max(0, sumSq / K - mean * mean) * K / (K - 1)) : 0;
+        final var result = new Result(mean, std / Math.sqrt(K));
+
+        System.out.println(String.format(Locale.ROOT, "%-6s <v_a> = %.6f +- %.6f (std %.6f, %d replicas, %.2f steps/s)",
+                precision, result.mean(), result.error(), std, K, ic.getSteps() / seconds));
+
+        return result;
+    }
+
+    private record Result(double mean, double error) {
+    }
+}
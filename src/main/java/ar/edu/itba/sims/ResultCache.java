@@ -0,0 +1,383 @@
+package ar.edu.itba.sims;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+/**
+ * On-disk cache of simulation results.
+ *
+ * Entries are keyed by the SHA-256 of the canonical input conditions and of the
+ * compiled classes, so a result is only reused for the same configuration run
+ * by the same code. Only seeded configurations are cached, since unseeded runs
+ * are not reproducible.
+ *
+ * Every entry holds the observables computed for it and, optionally, its
+ * trajectory frames. Frames record the input conditions that wrote them, so
+ * results computed from frames of other conditions are never stored. Frames of
+ * resumed runs are never recorded, and so never cached: resuming reseeds the
+ * noise, so they do not reproduce the uninterrupted run.
+ *
+ * When the cache grows past {@code cache.size} MiB (1024 by default) the least
+ * recently used entries are evicted. {@code -Dcache=false} disables it.
+ *
+ * Usage: {@code ResultCache contains <observable>} exits with 0 when the
+ * observable of the input conditions is cached.
+ */
+public class ResultCache {
+    private static final String directoryPath = "src/main/resources/cache";
+    private static final String TRAJECTORY = "time_slices";
+
+    private static String codeVersion;
+
+    private final Path root;
+    private final long capacity;
+    private final boolean enabled;
+
+    private ResultCache(final Path root, final long capacity, final boolean enabled) {
+        this.root = root;
+        this.capacity = capacity;
+        this.enabled = enabled;
+    }
+
+    public static void main(String[] args) {
+        final var ic = InitialStateParser.parse(System.getProperty("input", "initial_conditions.json"));
+
+        if (args.length < 2 || !args[0].equals("contains")) {
+            System.err.println("Usage: ResultCache contains <observable>");
+            System.exit(2);
+        }
+
+        System.exit(open().observable(ic, args[1]).isPresent() ? 0 : 1);
+    }
+
+    /**
+     * Opens the cache configured through system properties.
+     */
+    public static ResultCache open() {
+        return new ResultCache(
+                Path.of(System.getProperty("cache.dir", directoryPath)),
+                Long.getLong("cache.size", 1024) * 1024 * 1024,
+                Boolean.parseBoolean(System.getProperty("cache", "true")));
+    }
+
+    /**
+     * Looks up a cached observable.
+     *
+     * @param ic         Input conditions of the run
+     * @param observable Name of the observable
+     * @return the cached output file, if any
+     */
+    public Optional<Path> observable(final InitialConditions ic, final String observable) {
+        return lookup(ic, observable + ".txt");
+    }
+
+    /**
+     * Looks up the cached trajectory frames.
+     *
+     * @param ic Input conditions of the run
+     * @return the directory holding the frames, if any
+     */
+    public Optional<Path> trajectory(final InitialConditions ic) {
+        return lookup(ic, TRAJECTORY);
+    }
+
+    /**
+     * Stores the output file of an observable.
+     *
+     * @apiNote Does nothing if the configuration is not cacheable or the frames
+     *          were not written from it.
+     *
+     * @param frames Directory of the frames the observable was computed from
+     */
+    public void storeObservable(final InitialConditions ic, final String observable, final Path file,
+            final Path frames) {
+        if (writtenFrom(ic, frames, observable)) {
+            store(ic, observable + ".txt", file);
+        }
+    }
+
+    /**
+     * Stores the trajectory frames.
+     *
+     * @apiNote Does nothing if the configuration is not cacheable or the frames
+     *          were not written from it.
+     */
+    public void storeTrajectory(final InitialConditions ic, final Path directory) {
+        if (writtenFrom(ic, directory, TRAJECTORY)) {
+            store(ic, TRAJECTORY, directory);
+        }
+    }
+
+    /**
+     * Records the input conditions that wrote a directory of frames, once all
+     * of them are written.
+     */
+    public static void recordSource(final InitialConditions ic, final Path frames) throws IOException {
+        Files.writeString(source(frames), canonical(ic));
+    }
+
+    /**
+     * Forgets the input conditions of a directory of frames, before they are
+     * overwritten.
+     */
+    public static void clearSource(final Path frames) throws IOException {
+        Files.deleteIfExists(source(frames));
+    }
+
+    /**
+     * Copies a file, or the files of a directory, to another path.
+     */
+    public static void copy(final Path source, final Path target) throws IOException {
+        if (!Files.isDirectory(source)) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+
+        Files.createDirectories(target);
+        try (final var files = Files.list(source)) {
+            for (final var file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, target.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a directory of frames was written by a complete run of
+     * the input conditions.
+     *
+     * @apiNote Frames of resumed runs, or whose run did not finish, are never
+     *          recorded, so they match no conditions.
+     */
+    public static boolean isSource(final InitialConditions ic, final Path frames) {
+        try {
+            final var source = source(frames);
+            return Files.exists(source) && Files.readString(source).equals(canonical(ic));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the source of " + frames, e);
+        }
+    }
+
+    /**
+     * Checks that frames were written from the input conditions, warning when
+     * they were not and the result would have been cached.
+     */
+    private boolean writtenFrom(final InitialConditions ic, final Path frames, final String name) {
+        if (key(ic) == null) {
+            return false;
+        }
+
+        if (isSource(ic, frames)) {
+            return true;
+        }
+
+        System.err.println("Not caching " + name + ": " + frames + " was not written from these input conditions");
+        return false;
+    }
+
+    /**
+     * @return the file recording the input conditions of a directory of frames,
+     *         kept beside it so frame counts are not affected
+     */
+    private static Path source(final Path frames) {
+        return frames.resolveSibling(frames.getFileName() + ".json");
+    }
+
+    private Optional<Path> lookup(final InitialConditions ic, final String name) {
+        final var key = key(ic);
+        if (key == null) {
+            return Optional.empty();
+        }
+
+        final var entry = root.resolve(key);
+        final var path = entry.resolve(name);
+        if (!Files.exists(path)) {
+            return Optional.empty();
+        }
+
+        touch(entry);
+        return Optional.of(path);
+    }
+
+    private void store(final InitialConditions ic, final String name, final Path source) {
+        final var key = key(ic);
+        if (key == null) {
+            return;
+        }
+
+        final var entry = root.resolve(key);
+        final var partial = entry.resolve(name + ".partial");
+        try {
+            Files.createDirectories(entry);
+            Files.writeString(entry.resolve("config.json"), canonical(ic));
+
+            // Copy aside first so an interrupted store never looks complete
+            delete(partial);
+            copy(source, partial);
+            delete(entry.resolve(name));
+            Files.move(partial, entry.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+
+            touch(entry);
+            evict(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store " + name + " in cache entry " + key, e);
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits its
+     * capacity, never deleting {@code keep}.
+     */
+    private void evict(final Path keep) throws IOException {
+        final var entries = new ArrayList<Path>();
+        try (final var list = Files.list(root)) {
+            list.filter(Files::isDirectory).forEach(entries::add);
+        }
+
+        entries.sort(Comparator.comparing(ResultCache::lastUsed));
+
+        var total = 0L;
+        final var sizes = new ArrayList<Long>(entries.size());
+        for (final var entry : entries) {
+            final var size = size(entry);
+            sizes.add(size);
+            total += size;
+        }
+
+        for (int i = 0; i < entries.size() && total > capacity; i++) {
+            if (!entries.get(i).equals(keep)) {
+                delete(entries.get(i));
+                total -= sizes.get(i);
+            }
+        }
+    }
+
+    /**
+     * @return the key of the configuration, or {@code null} if it is not
+     *         cacheable
+     */
+    private String key(final InitialConditions ic) {
+        if (!enabled || ic.getSeed() == null) {
+            return null;
+        }
+
+        try {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(canonical(ic).getBytes(StandardCharsets.UTF_8));
+            digest.update(codeVersion().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String canonical(final InitialConditions ic) {
+        final var mapper = JsonMapper.builder()
+                .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+                .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+                .build();
+
+        try {
+            return mapper.writeValueAsString(ic);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not serialize input conditions", e);
+        }
+    }
+
+    /**
+     * Hashes every compiled class of the project, in name order.
+     */
+    private static synchronized String codeVersion() {
+        if (codeVersion != null) {
+            return codeVersion;
+        }
+
+        try {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            final var location = Path.of(ResultCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+            if (Files.isDirectory(location)) {
+                final List<Path> classes;
+                try (final Stream<Path> files = Files.walk(location)) {
+                    classes = files.filter(f -> f.toString().endsWith(".class")).sorted().toList();
+                }
+
+                for (final var file : classes) {
+                    digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(file));
+                }
+            } else {
+                try (final var jar = new JarFile(location.toFile())) {
+                    final var entries = jar.stream().filter(e -> e.getName().endsWith(".class"))
+                            .sorted(Comparator.comparing(e -> e.getName())).toList();
+
+                    for (final var entry : entries) {
+                        digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+                        try (final var in = jar.getInputStream(entry)) {
+                            digest.update(in.readAllBytes());
+                        }
+                    }
+                }
+            }
+
+            codeVersion = HexFormat.of().formatHex(digest.digest());
+            return codeVersion;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read compiled classes", e);
+        } catch (NoSuchAlgorithmException | URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void touch(final Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not touch cache entry " + entry, e);
+        }
+    }
+
+    private static FileTime lastUsed(final Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long size(final Path path) throws IOException {
+        try (final var files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (final var files = Files.walk(path)) {
+            for (final var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
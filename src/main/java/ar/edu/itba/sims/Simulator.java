@@ -1,36 +1,69 @@
 package ar.edu.itba.sims;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.RandomAccess;
+import java.util.function.Supplier;
 
 import ar.edu.itba.sims.models.Particle;
+import ar.edu.itba.sims.models.Particles;
 import ar.edu.itba.sims.neighbours.CIM;
+import ar.edu.itba.sims.neighbours.LoadBalancer;
+import ar.edu.itba.sims.offheap.OffHeapEngine;
+import ar.edu.itba.sims.offheap.OffHeapState;
 
 public class Simulator implements Iterable<Simulator.Iteration> {
-    private static final Random random = new Random();
-
+    private final Random random;
     private final List<Particle> particles;
     private final Interact interaction;
+    private final String interactionType;
+    private final Supplier<Iterator<Iteration>> engine;
+    private final String mapping;
+    private final String precision;
+    private final Long seed;
     private final double L;
     private final double Rc;
     private final double noise;
     private final int start;
     private final int steps;
 
+    private OffHeapState offHeapState;
+    private int offHeapStep;
+    private Supplier<LoadBalancer.Metrics> metrics;
+
     public Simulator(final List<Particle> particles, final InitialConditions conditions) {
         this(particles, conditions, 0);
     }
 
     public Simulator(final List<Particle> particles, final InitialConditions conditions, int start) {
         this.interaction = switch (conditions.getInteraction()) {
-            case "average" -> Simulator::averageInteraction;
-            case "voter" -> Simulator::voterInteraction;
+            case "average" -> this::averageInteraction;
+            case "voter" -> this::voterInteraction;
             default -> throw new IllegalArgumentException("Unknown interaction type: " + conditions.getInteraction());
         };
 
+        this.engine = switch (conditions.getStorage()) {
+            case "heap" -> HeapIterator::new;
+            case "offheap" -> OffHeapIterator::new;
+            default -> throw new IllegalArgumentException("Unknown storage type: " + conditions.getStorage());
+        };
+
         this.particles = particles;
+        this.interactionType = conditions.getInteraction();
+        this.mapping = conditions.getMapping();
+        this.precision = conditions.getPrecision();
+        if (conditions.getStorage().equals("heap") && !precision.equals("double")) {
+            throw new IllegalArgumentException("Precision " + precision + " requires offheap storage");
+        }
+        this.seed = conditions.getSeed();
+        // Derived from the seed so the noise does not replay the draws of the initial state
+        this.random = seed == null ? new Random() : new Random(new Random(seed).nextLong());
         this.L = conditions.getL();
         this.Rc = conditions.getR();
         this.noise = conditions.getNoise();
@@ -40,65 +73,164 @@ public class Simulator implements Iterable<Simulator.Iteration> {
 
     @Override
     public Iterator<Iteration> iterator() {
-        return new Iterator<Iteration>() {
-            private int current = start;
-            private List<Particle> simulation = List.copyOf(particles);
+        return engine.get();
+    }
+
+    /**
+     * Forces the state of the latest off-heap iteration to its mapping file.
+     *
+     * @apiNote Does nothing for on-heap storage or when no mapping is set.
+     */
+    public void flush() {
+        if (offHeapState != null) {
+            offHeapState.flush(offHeapStep);
+        }
+    }
+
+    /**
+     * @return the load balance of the neighbour search of the latest iteration,
+     *         or {@code null} if none was started
+     */
+    public LoadBalancer.Metrics getMetrics() {
+        return metrics == null ? null : metrics.get();
+    }
+
+    public List<Particle> getInitialState() {
+        return particles;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public String getPrecision() {
+        return precision;
+    }
+
+    private double averageInteraction(final Particle p, final List<Particle> neighbours) {
+        return p.computeAvgTheta(neighbours);
+    }
 
+    private double voterInteraction(final Particle p, final List<Particle> neighbours) {
+        final var rand = neighbours.size() > 1 ? random.nextInt(1, neighbours.size()) : 0;
+        return neighbours.get(rand).getTheta();
+    }
+
+    private class HeapIterator implements Iterator<Iteration> {
+        private final CIM cim = new CIM(L, Rc);
+        private int current = start;
+        private List<Particle> simulation = particles;
+        private final Particles view = new View();
+
+        private HeapIterator() {
+            metrics = cim::metrics;
+        }
+
+        private class View extends AbstractList<Particle> implements Particles, RandomAccess {
             @Override
-            public boolean hasNext() {
-                return current < steps;
+            public Particle get(final int i) {
+                return simulation.get(i);
             }
 
             @Override
-            public Iteration next() {
-                final List<Particle> result = new ArrayList<>(particles.size());
+            public int size() {
+                return simulation.size();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current < steps;
+        }
 
-                CIM.evaluate(simulation, L, Rc).forEach((p, neighbours) -> {
-                    var velocity = p.getVelocity();
-                    var newX = p.getX() + velocity.getX();
-                    var newY = p.getY() + velocity.getY();
+        @Override
+        public Iteration next() {
+            final List<Particle> result = new ArrayList<>(particles.size());
+            final var neighbourhoods = cim.evaluate(simulation);
 
-                    // Check boundaries
-                    if (newX < 0 || newX > L) {
-                        newX = Math.abs(newX + L) % L; // Wrap around horizontally
-                    }
+            for (int i = 0; i < simulation.size(); i++) {
+                final var p = simulation.get(i);
+                final var neighbours = neighbourhoods.get(i);
 
-                    if (newY < 0 || newY > L) {
-                        newY = Math.abs(newY + L) % L; // Wrap around vertically
-                    }
+                var velocity = p.getVelocity();
+                var newX = p.getX() + velocity.getX();
+                var newY = p.getY() + velocity.getY();
 
-                    final var n = noise == 0 ? 0 : random.nextDouble(noise) - noise / 2;
-                    final var newTheta = interaction.interact(p, neighbours) + n;
+                // Check boundaries
+                if (newX < 0 || newX > L) {
+                    newX = Math.abs(newX + L) % L; // Wrap around horizontally
+                }
 
-                    result.add(new Particle(newX, newY, p.getR(), p.getV(), newTheta));
-                });
+                if (newY < 0 || newY > L) {
+                    newY = Math.abs(newY + L) % L; // Wrap around vertically
+                }
 
-                simulation = result;
-                current++;
+                final var n = noise == 0 ? 0 : random.nextDouble(noise) - noise / 2;
+                final var newTheta = interaction.interact(p, neighbours) + n;
 
-                return new Iteration(current, List.copyOf(simulation));
+                result.add(new Particle(newX, newY, p.getR(), p.getV(), newTheta));
             }
-        };
-    }
 
-    public List<Particle> getInitialState() {
-        return particles;
-    }
+            simulation = result;
+            current++;
 
-    public int getSteps() {
-        return steps;
+            return new Iteration(current, view);
+        }
     }
 
-    private static double averageInteraction(final Particle p, final List<Particle> neighbours) {
-        return p.computeAvgTheta(neighbours);
-    }
 
-    private static double voterInteraction(final Particle p, final List<Particle> neighbours) {
-        final var rand = neighbours.size() > 1 ? random.nextInt(1, neighbours.size()) : 0;
-        return neighbours.get(rand).getTheta();
+    private class OffHeapIterator implements Iterator<Iteration> {
+        private int current = start;
+        private final OffHeapState state;
+        private final OffHeapEngine engine;
+        private final Particles view;
+
+        private OffHeapIterator() {
+            try {
+                state = new OffHeapState(List.of(particles), L, Rc, mapping == null ? null : Path.of(mapping), precision);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map particle state to " + mapping, e);
+            }
+
+            engine = new OffHeapEngine(state, interactionType, Rc, noise, seed);
+            view = state.particles(0);
+            offHeapState = state;
+            offHeapStep = current;
+            metrics = engine::metrics;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current < steps;
+        }
+
+        @Override
+        public Iteration next() {
+            engine.step();
+            current++;
+            offHeapStep = current;
+
+            return new Iteration(current, view);
+        }
     }
 
-    public record Iteration(int step, List<Particle> particles) {
+    /**
+     * A step of the simulation.
+     *
+     * @param step      Step the state corresponds to
+     * @param particles Read-only view of the engine state, only valid until the
+     *                  next step. Off-heap views build a new particle on every
+     *                  {@code get}, so particles of a view are not identical
+     *                  across calls and must not be used as keys; consumers
+     *                  that only need fields should use the indexed accessors
+     */
+    public record Iteration(int step, Particles particles) {
+        /**
+         * @return a copy of the particles that outlives the next step
+         */
+        public List<Particle> snapshot() {
+            return List.copyOf(particles);
+        }
     }
 
     private interface Interact {
@@ -0,0 +1,125 @@
+package ar.edu.itba.sims;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import ar.edu.itba.sims.neighbours.CIM;
+import ar.edu.itba.sims.offheap.OffHeapEngine;
+
+/**
+ * Sweeps the particle count and compares the on-heap and off-heap engines.
+ *
+ * Usage: {@code StorageBenchmark <steps> <N>...}. Density, radius, speed, noise
+ * and interaction are taken from the input conditions; L is scaled to keep the
+ * density fixed. For every run it reports throughput in particle-steps per
+ * second, the heap the engine retains, measured after a collection, and the
+ * heap it allocates per step.
+ *
+ * Every run is done in its own JVM, so the garbage and JIT state of one engine
+ * is never charged to the other.
+ */
+public abstract class StorageBenchmark {
+    private static final int warmup = 5;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 4 && args[0].equals("run")) {
+            run(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+
+        if (args.length < 2) {
+            System.err.println("Usage: StorageBenchmark <steps> <N>...");
+            return;
+        }
+
+        System.out.println("storage         N        L   steps/s   Mparticle-steps/s   retained heap (MiB)   alloc (KiB/step)");
+        for (int a = 1; a < args.length; a++) {
+            for (final var storage : new String[] { "heap", "offheap" }) {
+                fork(storage, args[0], args[a]);
+            }
+        }
+    }
+
+    /**
+     * Runs a single configuration in a child JVM with the same options.
+     */
+    private static void fork(final String storage, final String steps, final String n)
+            throws IOException, InterruptedException {
+        final var command = new ArrayList<String>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(StorageBenchmark.class.getName());
+        command.addAll(List.of("run", storage, steps, n));
+
+        final var exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (exit != 0) {
+            throw new IllegalStateException("Benchmark of " + storage + " with N=" + n + " exited with " + exit);
+        }
+    }
+
+    private static void run(final String storage, final int steps, final int n) {
+        final var ic = InitialStateParser.parse(System.getProperty("input", "initial_conditions.json"));
+        final var density = ic.getN() / (ic.getL() * ic.getL());
+        ic.setN(n);
+        ic.setL(Math.sqrt(n / density));
+        ic.setSteps(warmup + steps);
+        ic.setStorage(storage);
+
+        try {
+            final var baseline = retained();
+            final var simulator = new Simulator(InitialStateParser.buildInitialState(ic), ic);
+            final var iterator = simulator.iterator();
+
+            for (int i = 0; i < warmup && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+
+            final var allocatedBefore = allocated();
+            final var start = System.nanoTime();
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+            final var seconds = (System.nanoTime() - start) / 1e9;
+            final var allocation = (allocated() - allocatedBefore) / (double) steps;
+
+            // The engine state must still be reachable when the heap is measured
+            final var state = retained() - baseline;
+            Reference.reachabilityFence(iterator);
+
+            System.out.println(String.format(Locale.ROOT, "%-8s %10d %8.2f %9.2f %19.2f %21.1f %18.1f",
+                    storage, n, ic.getL(), steps / seconds, n * (steps / seconds) / 1e6,
+                    state / (1024.0 * 1024.0), allocation / 1024.0));
+        } finally {
+            CIM.shutdown();
+            OffHeapEngine.shutdown();
+        }
+    }
+
+    /**
+     * @return the heap in use after a full collection
+     */
+    private static long retained() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return the bytes allocated so far by every live thread, including the
+     *         engine pools
+     */
+    private static long allocated() {
+        final var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long total = 0;
+        for (final var bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+}
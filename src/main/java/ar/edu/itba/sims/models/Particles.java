@@ -0,0 +1,46 @@
+package ar.edu.itba.sims.models;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list of particles with indexed access to their fields.
+ *
+ * Views over state that is not stored as {@link Particle} objects build a new
+ * particle on every {@link #get(int)}, so two calls never return the same
+ * object and particles must not be used as keys. The indexed accessors read
+ * the fields without building one.
+ */
+public interface Particles extends List<Particle> {
+    default double getX(int i) {
+        return get(i).getX();
+    }
+
+    default double getY(int i) {
+        return get(i).getY();
+    }
+
+    default double getTheta(int i) {
+        return get(i).getTheta();
+    }
+
+    /**
+     * @return a read-only view of a list of particles
+     */
+    static Particles of(final List<Particle> particles) {
+        final class Wrapper extends AbstractList<Particle> implements Particles, RandomAccess {
+            @Override
+            public Particle get(final int i) {
+                return particles.get(i);
+            }
+
+            @Override
+            public int size() {
+                return particles.size();
+            }
+        }
+
+        return new Wrapper();
+    }
+}
@@ -1,119 +1,333 @@
 package ar.edu.itba.sims.neighbours;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-import ar.edu.itba.sims.models.Matrix;
 import ar.edu.itba.sims.models.Particle;
 
-public abstract class CIM {
-    private static final ExecutorService executor = Executors.newFixedThreadPool(8);
+/**
+ * Cell index method over a persistent grid.
+ *
+ * Particles are identified by their index in the evaluated list, which must be
+ * the same particle from one evaluation to the next. Only the particles that
+ * changed cell since the previous evaluation are moved; removals leave holes
+ * in their cell that are compacted every {@value #COMPACTION_PERIOD}
+ * evaluations.
+ *
+ * Moves are applied in parallel without locks: every cell is owned by exactly
+ * one stripe task, which performs all removals from and insertions into the
+ * cells it owns.
+ *
+ * Neighbours are searched cell by cell, split among the threads by a
+ * {@link LoadBalancer} that weighs every cell by the pairs it has to check.
+ */
+public class CIM {
+    private static final int THREADS = 8;
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    private static final int CHUNKS = 64;
+    private static final int STRIPES = 32;
+    private static final int COMPACTION_PERIOD = 32;
+    private static final int EMPTY = -1;
+
+    private final double L;
+    private final double R2;
+    private final double Ms;
+    private final int M;
+    private final int[][] stencil;
+    private final LoadBalancer balancer;
+
+    private int n = -1;
+    private int evaluations = 0;
+
+    private int[][] cells;
+    private int[] sizes;
+    private int[] holes;
+    private int[] cellOf;
+    private int[] slotOf;
+
+    private int[] moved;
+    private int[] movedFrom;
+    private int[] movedSlot;
+    private int[] movedTo;
+    private int[] movedCount;
+
+    /**
+     * @param L  Length of the simulation box
+     * @param Rc Interaction radius
+     */
+    public CIM(final double L, final double Rc) {
+        this.L = L;
+        this.R2 = Rc * Rc;
+        this.M = (int) (L / Rc);
+        this.Ms = L / M;
+        this.stencil = new int[M * M][];
+        this.balancer = LoadBalancer.of(M * M, THREADS);
+
+        for (int i = 0; i < M; i++) {
+            for (int j = 0; j < M; j++) {
+                // Small grids wrap onto the same cell more than once
+                stencil[i * M + j] = Arrays.stream(new int[] {
+                        wrap(i - 1, j - 1), wrap(i - 1, j), wrap(i - 1, j + 1),
+                        wrap(i, j - 1), wrap(i, j), wrap(i, j + 1),
+                        wrap(i + 1, j - 1), wrap(i + 1, j), wrap(i + 1, j + 1)
+                }).distinct().toArray();
+            }
+        }
+    }
 
     /**
      * Evaluates the interaction between particles in a simulation box.
      *
      * @apiNote Particles are assumed to be points (radius of 0).
-     * @apiNote Particles are neighbours to themselves.
+     * @apiNote Particles are neighbours to themselves, and come first in their
+     *          own list.
      * @apiNote Particles are assumed to be in a periodic boundary condition box.
      *
-     * @param particles List of particles to evaluate
-     * @param L         Length of the simulation box
-     * @param Rc        Interaction radius
-     * @return A map where each key is a particle and the value is a list of
-     *         particles that interact with it.
+     * @param particles List of particles to evaluate, in the same order as the
+     *                  previous evaluation
+     * @return A list where the element at each index holds the particles that
+     *         interact with the particle at that index.
      */
-    public static Map<Particle, List<Particle>> evaluate(final List<Particle> particles, double L, double Rc) {
+    public List<List<Particle>> evaluate(final List<Particle> particles) {
         if (executor.isShutdown()) {
             throw new IllegalStateException("Executor service is shut down");
         }
 
-        final var M = (int) (L / Rc);
-        final var Ms = L / M;
-        final var R2 = Rc * Rc;
-
-        final var tasks = new ArrayList<Callable<Object>>(particles.size());
-        final var matrix = new Matrix<>(M, LinkedList<Particle>::new);
-        final var result = new ConcurrentHashMap<Particle, List<Particle>>();
-
-        for (final var p : particles) {
-            var i = (int) (p.getX() / Ms);
-            var j = (int) (p.getY() / Ms);
-            matrix.get(i, j).add(p);
-
-            final var neighbours = new LinkedList<Particle>();
-            neighbours.add(p);
-            result.putIfAbsent(p, neighbours);
-
-            // "Clean code"
-            final var coordinates = List.of(
-                    new WrappedCoordinate(i - 1, j - 1, M),
-                    new WrappedCoordinate(i - 1, j, M),
-                    new WrappedCoordinate(i - 1, j + 1, M),
-                    new WrappedCoordinate(i, j - 1, M),
-                    new WrappedCoordinate(i, j, M)
-            );
-
-            tasks.add(Executors.callable(new Task(p, result, L, R2, matrix, coordinates)));
+        if (particles.size() != n) {
+            build(particles);
+        } else {
+            update(particles);
         }
 
-        try {
-            executor.invokeAll(tasks);
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Evaluation interrupted", e);
-        }
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        final List<Particle>[] result = new List[n];
+
+        invoke(balancer.partition(this::cost), (part, first, last) -> {
+            final var start = System.nanoTime();
 
-        return result;
+            for (int home = first; home < last; home++) {
+                for (int slot = 0; slot < sizes[home]; slot++) {
+                    final var i = cells[home][slot];
+                    if (i == EMPTY) {
+                        continue;
+                    }
+
+                    final var p = particles.get(i);
+                    final var neighbours = new ArrayList<Particle>();
+                    neighbours.add(p);
+
+                    for (final var cell : stencil[home]) {
+                        final var members = cells[cell];
+                        for (int s = 0; s < sizes[cell]; s++) {
+                            final var j = members[s];
+                            if (j != EMPTY && j != i) {
+                                final var other = particles.get(j);
+                                if (p.sqrdDistance(other, L) < R2) {
+                                    neighbours.add(other);
+                                }
+                            }
+                        }
+                    }
+
+                    result[i] = neighbours;
+                }
+            }
+
+            balancer.record(part, System.nanoTime() - start);
+        });
+
+        return Arrays.asList(result);
+    }
+
+    /**
+     * @return the busy time of the neighbour search threads and the balance of
+     *         its last evaluation
+     */
+    public LoadBalancer.Metrics metrics() {
+        return balancer.metrics();
     }
 
     public static void shutdown() {
         executor.shutdown();
     }
 
-    private static record Task(Particle p, Map<Particle, List<Particle>> result, double L, double R2,
-            Matrix<LinkedList<Particle>> matrix, List<WrappedCoordinate> coordinates) implements Runnable {
-        @Override
-        public void run() {
-            for (final var coords : coordinates) {
-                final var quadrant = matrix.get(coords.getX(), coords.getY());
-
-                for (final var other : quadrant) {
-                    if (p.getId() < other.getId() && p.sqrdDistance(other, L) < R2) {
-                        result.compute(p, (p, list) -> {
-                            list.add(other);
-                            return list;
-                        });
-
-                        result.compute(other, (p, list) -> {
-                            list.add(p);
-                            return list;
-                        });
+    /**
+     * Inserts every particle from scratch.
+     */
+    private void build(final List<Particle> particles) {
+        n = particles.size();
+        evaluations = 0;
+
+        cells = new int[M * M][4];
+        sizes = new int[M * M];
+        holes = new int[M * M];
+        cellOf = new int[n];
+        slotOf = new int[n];
+
+        moved = new int[n];
+        movedFrom = new int[n];
+        movedSlot = new int[n];
+        movedTo = new int[n];
+        movedCount = new int[CHUNKS];
+
+        for (int i = 0; i < n; i++) {
+            final var cell = cellOf(particles.get(i));
+            cellOf[i] = cell;
+            slotOf[i] = append(cell, i);
+        }
+    }
+
+    /**
+     * Moves the particles whose cell changed since the previous evaluation.
+     */
+    private void update(final List<Particle> particles) {
+        // Every chunk records its moves in its own region of the moved arrays
+        invoke(n, CHUNKS, (chunk, from, to) -> {
+            var count = 0;
+            for (int i = from; i < to; i++) {
+                final var cell = cellOf(particles.get(i));
+                if (cell != cellOf[i]) {
+                    moved[from + count] = i;
+                    movedFrom[from + count] = cellOf[i];
+                    movedSlot[from + count] = slotOf[i];
+                    movedTo[from + count] = cell;
+                    count++;
+                }
+            }
+            movedCount[chunk] = count;
+        });
+
+        final var compact = ++evaluations % COMPACTION_PERIOD == 0;
+        final var size = Math.max(1, (n + CHUNKS - 1) / CHUNKS);
+
+        invoke(M * M, STRIPES, (stripe, first, last) -> {
+            for (int c = 0; c < CHUNKS && c * size < n; c++) {
+                for (int k = c * size; k < c * size + movedCount[c]; k++) {
+                    if (movedFrom[k] >= first && movedFrom[k] < last) {
+                        cells[movedFrom[k]][movedSlot[k]] = EMPTY;
+                        holes[movedFrom[k]]++;
                     }
+
+                    if (movedTo[k] >= first && movedTo[k] < last) {
+                        final var i = moved[k];
+                        cellOf[i] = movedTo[k];
+                        slotOf[i] = append(movedTo[k], i);
+                    }
+                }
+            }
+
+            if (compact) {
+                for (int cell = first; cell < last; cell++) {
+                    compact(cell);
                 }
             }
+        });
+    }
+
+    /**
+     * Appends a particle to a cell, growing it if needed.
+     *
+     * @return the slot the particle was stored at
+     */
+    private int append(final int cell, final int i) {
+        if (sizes[cell] == cells[cell].length) {
+            cells[cell] = Arrays.copyOf(cells[cell], cells[cell].length * 2);
         }
+
+        cells[cell][sizes[cell]] = i;
+        return sizes[cell]++;
     }
 
-    private static class WrappedCoordinate {
-        private final int x;
-        private final int y;
+    /**
+     * Removes the holes of a cell, keeping its members in order.
+     */
+    private void compact(final int cell) {
+        if (holes[cell] == 0) {
+            return;
+        }
 
-        public WrappedCoordinate(int x, int y, int M) {
-            this.x = (x + M) % M;
-            this.y = (y + M) % M;
+        final var members = cells[cell];
+        var size = 0;
+        for (int s = 0; s < sizes[cell]; s++) {
+            if (members[s] != EMPTY) {
+                slotOf[members[s]] = size;
+                members[size++] = members[s];
+            }
         }
 
-        public int getX() {
-            return x;
+        sizes[cell] = size;
+        holes[cell] = 0;
+    }
+
+    /**
+     * Estimates the cost of searching the neighbours of a cell as the pairs it
+     * checks, which grows as the square of the occupancy in dense regions.
+     */
+    private long cost(final int cell) {
+        final long occupancy = sizes[cell] - holes[cell];
+
+        long neighbourhood = 0;
+        for (final var other : stencil[cell]) {
+            neighbourhood += sizes[other] - holes[other];
         }
 
-        public int getY() {
-            return y;
+        return occupancy * (1 + neighbourhood);
+    }
+
+    private int cellOf(final Particle p) {
+        final var i = Math.min((int) (p.getX() / Ms), M - 1);
+        final var j = Math.min((int) (p.getY() / Ms), M - 1);
+        return i * M + j;
+    }
+
+    private int wrap(final int i, final int j) {
+        return ((i + M) % M) * M + (j + M) % M;
+    }
+
+    /**
+     * Splits {@code [0, total)} into at most {@code parts} equal ranges and runs
+     * them in parallel.
+     */
+    private void invoke(final int total, final int parts, final Range range) {
+        final var size = Math.max(1, (total + parts - 1) / parts);
+        final var bounds = new int[(total + size - 1) / size + 1];
+        for (int t = 0; t < bounds.length; t++) {
+            bounds[t] = Math.min(total, t * size);
         }
+
+        invoke(bounds, range);
+    }
+
+    /**
+     * Runs the ranges between consecutive bounds in parallel.
+     */
+    private void invoke(final int[] bounds, final Range range) {
+        final var tasks = new ArrayList<Callable<Object>>(bounds.length - 1);
+
+        for (int t = 0; t + 1 < bounds.length; t++) {
+            final var task = t;
+            final var from = bounds[t];
+            final var to = bounds[t + 1];
+            tasks.add(Executors.callable(() -> range.run(task, from, to)));
+        }
+
+        try {
+            for (final var future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Evaluation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Evaluation failed", e.getCause());
+        }
+    }
+
+    private interface Range {
+        void run(final int task, final int from, final int to);
     }
 }
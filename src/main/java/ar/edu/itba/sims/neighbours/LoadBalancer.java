@@ -0,0 +1,138 @@
+package ar.edu.itba.sims.neighbours;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Splits a range of cells into parts of similar cost.
+ *
+ * The cost of a cell is estimated from its occupancy, which in clustered states
+ * varies by orders of magnitude between cells. Parts are recomputed on the
+ * first step and whenever the slowest part of the previous step took more than
+ * {@code threshold} times the mean, so a stable state keeps its partition.
+ *
+ * The busy time of every worker thread is accumulated across steps.
+ */
+public class LoadBalancer {
+    private final int cells;
+    private final int parts;
+    private final double threshold;
+
+    private final int[] bounds;
+    private final long[] elapsed;
+    private final long[] prefix;
+    private final Map<String, Long> busy = new ConcurrentHashMap<>();
+
+    private boolean balanced = false;
+    private int rebalances = 0;
+
+    /**
+     * @param cells     Number of cells to split
+     * @param parts     Number of parts, usually the number of worker threads
+     * @param threshold Ratio between the slowest and the mean part above which
+     *                  the parts are recomputed; 1 recomputes every step
+     */
+    public LoadBalancer(final int cells, final int parts, final double threshold) {
+        this.cells = cells;
+        this.parts = Math.max(1, Math.min(parts, cells));
+        this.threshold = threshold;
+        this.bounds = new int[this.parts + 1];
+        this.elapsed = new long[this.parts];
+        this.prefix = new long[cells + 1];
+    }
+
+    /**
+     * Creates a balancer whose threshold is read from the
+     * {@code balance.threshold} system property, 1.25 by default.
+     */
+    public static LoadBalancer of(final int cells, final int parts) {
+        return new LoadBalancer(cells, parts, Double.parseDouble(System.getProperty("balance.threshold", "1.25")));
+    }
+
+    /**
+     * Returns the parts for the next step, recomputing them if needed.
+     *
+     * @param cost Estimated cost of every cell
+     * @return the bounds of the parts: part {@code k} covers the cells from
+     *         {@code bounds[k]} to {@code bounds[k + 1]}, exclusive
+     */
+    public int[] partition(final IntToLongFunction cost) {
+        if (!balanced || imbalance() > threshold) {
+            rebalance(cost);
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Records the time a part took, on the thread that ran it.
+     *
+     * @param part  Part that was run
+     * @param nanos Time it took
+     */
+    public void record(final int part, final long nanos) {
+        elapsed[part] = nanos;
+        busy.merge(Thread.currentThread().getName(), nanos, Long::sum);
+    }
+
+    /**
+     * @return the time of the slowest part of the last step over the mean
+     */
+    public double imbalance() {
+        long max = 0;
+        long total = 0;
+        for (final var nanos : elapsed) {
+            max = Math.max(max, nanos);
+            total += nanos;
+        }
+
+        return total == 0 ? 1 : (double) max * parts / total;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    public Metrics metrics() {
+        return new Metrics(new TreeMap<>(busy), imbalance(), rebalances);
+    }
+
+    private void rebalance(final IntToLongFunction cost) {
+        for (int c = 0; c < cells; c++) {
+            prefix[c + 1] = prefix[c] + cost.applyAsLong(c);
+        }
+
+        // Every part ends at the first cell that reaches its share of the total
+        final var total = prefix[cells];
+        var cell = 0;
+        for (int k = 1; k < parts; k++) {
+            final var target = total * k / parts;
+            while (cell < cells && prefix[cell] < target) {
+                cell++;
+            }
+            bounds[k] = Math.max(cell, bounds[k - 1]);
+        }
+        bounds[parts] = cells;
+
+        balanced = true;
+        rebalances++;
+    }
+
+    /**
+     * @param busy       Accumulated busy time of every worker thread, in
+     *                   nanoseconds
+     * @param imbalance  Slowest over mean part time of the last step
+     * @param rebalances Number of times the parts were recomputed
+     */
+    public record Metrics(Map<String, Long> busy, double imbalance, int rebalances) {
+        @Override
+        public String toString() {
+            final var sb = new StringBuilder();
+            sb.append(String.format("imbalance %.3f, %d rebalances%n", imbalance, rebalances));
+            busy.forEach((thread, nanos) -> sb.append(String.format("  %s busy %.3f s%n", thread, nanos / 1e9)));
+            return sb.toString();
+        }
+    }
+}
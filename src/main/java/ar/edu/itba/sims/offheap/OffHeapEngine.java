@@ -0,0 +1,364 @@
+package ar.edu.itba.sims.offheap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+
+import ar.edu.itba.sims.neighbours.LoadBalancer;
+
+/**
+ * Advances an {@link OffHeapState} one step at a time.
+ *
+ * The angle update reads the neighbourhood of every particle and writes the
+ * result to a scratch segment, then positions and angles are updated in place,
+ * so the state is never duplicated. Every phase runs over all the replicas of
+ * the state in a single dispatch.
+ *
+ * The angle update walks the cells, split among the threads by a
+ * {@link LoadBalancer} that weighs every cell by the pairs it has to check.
+ * Since the split changes with the load, noise does not come from a stream per
+ * task: every draw is a hash of the replica's seed, the step, the particle and
+ * a draw counter, so seeded runs are reproducible and steps allocate nothing.
+ */
+public class OffHeapEngine {
+    private static final int THREADS = 8;
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    private static final int CHUNKS = 64;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final OffHeapState state;
+    private final Interact interaction;
+    private final double L;
+    private final double R2;
+    private final double noise;
+
+    private final long[] seeds;
+    private final LoadBalancer balancer;
+    private final int chunks;
+    private final double[] sumCos;
+    private final double[] sumSin;
+    private final double[] order;
+
+    private long step = 0;
+
+    /**
+     * @param state       State to advance
+     * @param interaction Interaction type, {@code average} or {@code voter}
+     * @param Rc          Interaction radius
+     * @param noise       Amplitude of the angular noise
+     * @param seed        Seed of the replica generators, or {@code null} for
+     *                    a random one
+     */
+    public OffHeapEngine(final OffHeapState state, final String interaction, final double Rc, final double noise,
+            final Long seed) {
+        this.interaction = switch (interaction) {
+            case "average" -> this::averageInteraction;
+            case "voter" -> this::voterInteraction;
+            default -> throw new IllegalArgumentException("Unknown interaction type: " + interaction);
+        };
+
+        this.state = state;
+        this.L = state.getL();
+        this.R2 = Rc * Rc;
+        this.noise = noise;
+
+        final var root = seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+        this.seeds = new long[state.replicas()];
+        for (int r = 0; r < seeds.length; r++) {
+            seeds[r] = root.nextLong();
+        }
+
+        this.balancer = LoadBalancer.of(state.cells(), THREADS);
+
+        this.chunks = Math.max(1, CHUNKS / state.replicas());
+        this.sumCos = new double[state.replicas() * chunks];
+        this.sumSin = new double[state.replicas() * chunks];
+        this.order = new double[state.replicas()];
+
+        for (int i = 0; i < state.size(); i++) {
+            sumCos[i / state.particlesPerReplica() * chunks] += Math.cos(state.getTheta(i));
+            sumSin[i / state.particlesPerReplica() * chunks] += Math.sin(state.getTheta(i));
+        }
+        reduce();
+    }
+
+    /**
+     * Advances every replica by one step.
+     */
+    public void step() {
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("Executor service is shut down");
+        }
+
+        // Replicas own disjoint cells and slots, so they are sorted concurrently
+        invokeReplicas(state::index);
+        step++;
+
+        invoke(balancer.partition(this::cost), (part, first, last) -> {
+            final var start = System.nanoTime();
+
+            for (int cell = first; cell < last; cell++) {
+                for (int slot = state.cellStart(cell); slot < state.cellStart(cell + 1); slot++) {
+                    final var i = state.cellParticle(slot);
+                    final var key = key(i);
+                    final var n = noise == 0 ? 0 : (uniform(key, 0) - 0.5) * noise;
+                    state.setNextTheta(i, interaction.interact(i, key) + n);
+                }
+            }
+
+            balancer.record(part, System.nanoTime() - start);
+        });
+
+        final var v = state.getV();
+        invoke((replica, chunk, from, to) -> {
+            double cos = 0.0;
+            double sin = 0.0;
+
+            for (int i = from; i < to; i++) {
+                final var theta = state.getTheta(i);
+                var newX = state.getX(i) + v * Math.cos(theta);
+                var newY = state.getY(i) + v * Math.sin(theta);
+
+                // Check boundaries
+                if (newX < 0 || newX > L) {
+                    newX = Math.abs(newX + L) % L; // Wrap around horizontally
+                }
+
+                if (newY < 0 || newY > L) {
+                    newY = Math.abs(newY + L) % L; // Wrap around vertically
+                }
+
+                final var newTheta = state.getNextTheta(i);
+                state.setX(i, newX);
+                state.setY(i, newY);
+                state.setTheta(i, newTheta);
+
+                cos += Math.cos(newTheta);
+                sin += Math.sin(newTheta);
+            }
+
+            sumCos[replica * chunks + chunk] = cos;
+            sumSin[replica * chunks + chunk] = sin;
+        });
+
+        reduce();
+    }
+
+    /**
+     * @param replica Replica to observe
+     * @return the order parameter v_a of the replica after the last step
+     */
+    public double orderParameter(final int replica) {
+        return order[replica];
+    }
+
+    /**
+     * @return the busy time of the angle update threads and the balance of its
+     *         last step
+     */
+    public LoadBalancer.Metrics metrics() {
+        return balancer.metrics();
+    }
+
+    public static void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Estimates the cost of updating the particles of a cell as the pairs it
+     * checks, which grows as the square of the occupancy in dense regions.
+     */
+    private long cost(final int cell) {
+        final long occupancy = state.cellStart(cell + 1) - state.cellStart(cell);
+
+        long neighbourhood = 0;
+        for (int k = 0; k < state.stencil(); k++) {
+            final var other = state.cellNeighbour(cell, k);
+            if (other >= 0) {
+                neighbourhood += state.cellStart(other + 1) - state.cellStart(other);
+            }
+        }
+
+        return occupancy * (1 + neighbourhood);
+    }
+
+    /**
+     * @return the key of the draws of a particle on the current step
+     */
+    private long key(final int i) {
+        final var replica = i / state.particlesPerReplica();
+        return mix(seeds[replica] + step * state.particlesPerReplica() + i);
+    }
+
+    /**
+     * @param key   Key of the particle on the current step
+     * @param draw  Number of the draw; 0 is the noise, interactions use the
+     *              following ones
+     * @return a uniform value in [0, 1)
+     */
+    private static double uniform(final long key, final int draw) {
+        return (mix(key + draw * GOLDEN_GAMMA) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Scrambles consecutive seeds into unrelated ones (Stafford's mix 13).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private void reduce() {
+        for (int r = 0; r < order.length; r++) {
+            double cos = 0.0;
+            double sin = 0.0;
+            for (int c = 0; c < chunks; c++) {
+                cos += sumCos[r * chunks + c];
+                sin += sumSin[r * chunks + c];
+                sumCos[r * chunks + c] = 0;
+                sumSin[r * chunks + c] = 0;
+            }
+
+            order[r] = Math.hypot(cos, sin) / state.particlesPerReplica();
+        }
+    }
+
+    private void invoke(final int[] bounds, final Range range) {
+        final var tasks = new ArrayList<Callable<Object>>(bounds.length - 1);
+
+        for (int t = 0; t + 1 < bounds.length; t++) {
+            final var part = t;
+            final var from = bounds[t];
+            final var to = bounds[t + 1];
+            tasks.add(Executors.callable(() -> range.run(part, from, to)));
+        }
+
+        invokeAll(tasks);
+    }
+
+    /**
+     * Splits every replica into chunks of equal size and runs them in parallel.
+     */
+    private void invoke(final Chunk chunk) {
+        final var n = state.particlesPerReplica();
+        final var size = Math.max(1, (n + chunks - 1) / chunks);
+        final var tasks = new ArrayList<Callable<Object>>(state.replicas() * chunks);
+
+        for (int r = 0; r < state.replicas(); r++) {
+            for (int c = 0; c * size < n; c++) {
+                final var replica = r;
+                final var index = c;
+                final var from = r * n + c * size;
+                final var to = r * n + Math.min(n, (c + 1) * size);
+                tasks.add(Executors.callable(() -> chunk.run(replica, index, from, to)));
+            }
+        }
+
+        invokeAll(tasks);
+    }
+
+    /**
+     * Runs a task for every replica in parallel.
+     */
+    private void invokeReplicas(final IntConsumer task) {
+        final var tasks = new ArrayList<Callable<Object>>(state.replicas());
+        for (int r = 0; r < state.replicas(); r++) {
+            final var replica = r;
+            tasks.add(Executors.callable(() -> task.accept(replica)));
+        }
+
+        invokeAll(tasks);
+    }
+
+    private void invokeAll(final List<Callable<Object>> tasks) {
+        try {
+            for (final var future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Step interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Step failed", e.getCause());
+        }
+    }
+
+    private boolean interacts(final int i, final int j) {
+        var dx = Math.abs(state.getX(i) - state.getX(j));
+        var dy = Math.abs(state.getY(i) - state.getY(j));
+
+        if (dx > L / 2) {
+            dx -= L;
+        }
+
+        if (dy > L / 2) {
+            dy -= L;
+        }
+
+        return dx * dx + dy * dy < R2;
+    }
+
+    private double averageInteraction(final int i, final long key) {
+        final var home = state.cellOf(i);
+
+        double sumSin = 0.0;
+        double sumCos = 0.0;
+        for (int k = 0; k < state.stencil(); k++) {
+            final var cell = state.cellNeighbour(home, k);
+            if (cell < 0) {
+                continue;
+            }
+
+            for (int slot = state.cellStart(cell); slot < state.cellStart(cell + 1); slot++) {
+                final var j = state.cellParticle(slot);
+                if (i == j || interacts(i, j)) {
+                    final var theta = state.getTheta(j);
+                    sumSin += Math.sin(theta);
+                    sumCos += Math.cos(theta);
+                }
+            }
+        }
+
+        return Math.atan2(sumSin, sumCos);
+    }
+
+    private double voterInteraction(final int i, final long key) {
+        final var home = state.cellOf(i);
+
+        // Reservoir sampling picks a uniform neighbour without storing the list
+        var chosen = i;
+        var seen = 0;
+        for (int k = 0; k < state.stencil(); k++) {
+            final var cell = state.cellNeighbour(home, k);
+            if (cell < 0) {
+                continue;
+            }
+
+            for (int slot = state.cellStart(cell); slot < state.cellStart(cell + 1); slot++) {
+                final var j = state.cellParticle(slot);
+                if (i != j && interacts(i, j) && uniform(key, ++seen) * seen < 1) {
+                    chosen = j;
+                }
+            }
+        }
+
+        return state.getTheta(chosen);
+    }
+
+    private interface Interact {
+        double interact(final int i, final long key);
+    }
+
+    private interface Range {
+        void run(final int part, final int from, final int to);
+    }
+
+    private interface Chunk {
+        void run(final int replica, final int chunk, final int from, final int to);
+    }
+}
@@ -0,0 +1,383 @@
+package ar.edu.itba.sims.offheap;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+import ar.edu.itba.sims.models.Particle;
+import ar.edu.itba.sims.models.Particles;
+
+/**
+ * Particle and cell state stored outside the Java heap.
+ *
+ * Positions and angles are kept as structure-of-arrays segments holding one or
+ * more replicas of the same configuration back to back: particle {@code i} of
+ * replica {@code r} is stored at index {@code r * n + i}. When a mapping file
+ * is given they live directly in it, laid out as a header
+ * {@code [n, replicas, bytes per value, step]} followed by {@code x},
+ * {@code y} and {@code theta}, so a frame is flushed with {@link #flush(int)}
+ * without copying.
+ *
+ * Values are stored in double or single precision. Single precision halves the
+ * memory traffic of the neighbour scan; accessors always widen to double so
+ * arithmetic and reductions keep double precision.
+ *
+ * Cells are stored in compressed form: {@code cellStart[c]} is the offset of
+ * cell {@code c} in {@code cellParticles}, which holds particle indices sorted
+ * by cell. Every replica has its own {@code M * M} cells, so a single sort
+ * indexes all of them.
+ */
+public final class OffHeapState {
+    private static final long HEADER_SIZE = 4 * Long.BYTES;
+    private static final int STENCIL = 9;
+
+    private final int n;
+    private final int replicas;
+    private final boolean single;
+    private final int M;
+    private final double L;
+    private final double Ms;
+    private final double r;
+    private final double v;
+
+    private final MemorySegment header;
+    private final MemorySegment x;
+    private final MemorySegment y;
+    private final MemorySegment theta;
+    private final MemorySegment nextTheta;
+
+    private final MemorySegment cellStart;
+    private final MemorySegment cellParticles;
+    private final MemorySegment cellNeighbours;
+
+    /**
+     * Creates the off-heap state for several replicas of the same configuration.
+     *
+     * @param replicas  Initial particles of every replica, all of the same size
+     * @param L         Length of the simulation box
+     * @param Rc        Interaction radius
+     * @param mapping   File to map the particle state to, or {@code null} to keep
+     *                  it in anonymous memory
+     * @param precision Precision of the stored values, {@code double} or
+     *                  {@code single}
+     * @throws IOException if the mapping file cannot be created
+     */
+    public OffHeapState(final List<List<Particle>> replicas, final double L, final double Rc, final Path mapping,
+            final String precision) throws IOException {
+        final var width = switch (precision) {
+            case "double" -> Double.BYTES;
+            case "single" -> Float.BYTES;
+            default -> throw new IllegalArgumentException("Unknown precision: " + precision);
+        };
+
+        final var arena = Arena.ofAuto();
+        final var first = replicas.getFirst();
+
+        this.n = first.size();
+        this.replicas = replicas.size();
+        this.single = width == Float.BYTES;
+        this.M = (int) (L / Rc);
+        this.L = L;
+        this.Ms = L / M;
+        this.r = first.isEmpty() ? Rc : first.getFirst().getR();
+        this.v = first.isEmpty() ? 0 : first.getFirst().getV();
+
+        final var bytes = (long) n * this.replicas * width;
+        final MemorySegment state;
+        if (mapping != null) {
+            try (final var channel = FileChannel.open(mapping, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                state = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 3 * bytes, arena);
+            }
+        } else {
+            state = arena.allocate(HEADER_SIZE + 3 * bytes, Long.BYTES);
+        }
+
+        this.header = state.asSlice(0, HEADER_SIZE);
+        this.x = state.asSlice(HEADER_SIZE, bytes);
+        this.y = state.asSlice(HEADER_SIZE + bytes, bytes);
+        this.theta = state.asSlice(HEADER_SIZE + 2 * bytes, bytes);
+        this.nextTheta = arena.allocate(bytes, width);
+
+        this.cellStart = arena.allocate(((long) cells() + 1) * Integer.BYTES, Integer.BYTES);
+        this.cellParticles = arena.allocate((long) size() * Integer.BYTES, Integer.BYTES);
+        this.cellNeighbours = arena.allocate((long) M * M * STENCIL * Integer.BYTES, Integer.BYTES);
+
+        // The end of the last cell never moves, every replica holds n particles
+        cellStart.setAtIndex(ValueLayout.JAVA_INT, cells(), size());
+
+        header.set(ValueLayout.JAVA_LONG, 0, n);
+        header.set(ValueLayout.JAVA_LONG, Long.BYTES, this.replicas);
+        header.set(ValueLayout.JAVA_LONG, 2 * Long.BYTES, width);
+        for (int k = 0; k < this.replicas; k++) {
+            final var particles = replicas.get(k);
+            if (particles.size() != n) {
+                throw new IllegalArgumentException("All replicas must have " + n + " particles");
+            }
+
+            for (int i = 0; i < n; i++) {
+                final var p = particles.get(i);
+                setX(k * n + i, p.getX());
+                setY(k * n + i, p.getY());
+                setTheta(k * n + i, p.getTheta());
+            }
+        }
+
+        buildStencil();
+    }
+
+    /**
+     * Precomputes the neighbouring cells of every cell, wrapping around the
+     * periodic boundaries. Cells repeated because the grid is smaller than the
+     * stencil are stored as {@code -1}.
+     */
+    private void buildStencil() {
+        for (int i = 0; i < M; i++) {
+            for (int j = 0; j < M; j++) {
+                final var base = (long) (i * M + j) * STENCIL;
+                int k = 0;
+
+                for (int di = -1; di <= 1; di++) {
+                    for (int dj = -1; dj <= 1; dj++) {
+                        final var cell = ((i + di + M) % M) * M + (j + dj + M) % M;
+
+                        var repeated = false;
+                        for (int prev = 0; prev < k; prev++) {
+                            repeated |= cellNeighbours.getAtIndex(ValueLayout.JAVA_INT, base + prev) == cell;
+                        }
+
+                        cellNeighbours.setAtIndex(ValueLayout.JAVA_INT, base + k++, repeated ? -1 : cell);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the cell arrays of every replica from the current positions.
+     */
+    public void index() {
+        for (int k = 0; k < replicas; k++) {
+            index(k);
+        }
+    }
+
+    /**
+     * Rebuilds the cell arrays of a replica from its current positions with a
+     * counting sort.
+     *
+     * Every replica owns the cells from {@code replica * M * M} and the slots
+     * from {@code replica * n} of {@code cellParticles}, so replicas can be
+     * indexed concurrently.
+     *
+     * @param replica Replica to index
+     */
+    public void index(final int replica) {
+        final var first = replica * n;
+        final var firstCell = (long) replica * M * M;
+        final var lastCell = firstCell + (long) M * M;
+        cellStart.asSlice(firstCell * Integer.BYTES, (long) M * M * Integer.BYTES).fill((byte) 0);
+
+        for (int i = first; i < first + n; i++) {
+            final var cell = cellOf(i);
+            cellStart.setAtIndex(ValueLayout.JAVA_INT, cell, cellStart.getAtIndex(ValueLayout.JAVA_INT, cell) + 1);
+        }
+
+        // Inclusive prefix sum from the first slot of the replica: cellStart[c] becomes the end of cell c
+        var end = first;
+        for (long c = firstCell; c < lastCell; c++) {
+            end += cellStart.getAtIndex(ValueLayout.JAVA_INT, c);
+            cellStart.setAtIndex(ValueLayout.JAVA_INT, c, end);
+        }
+
+        // Filling each cell from its end moves cellStart[c] back to its start
+        for (int i = first + n - 1; i >= first; i--) {
+            final var cell = cellOf(i);
+            final var slot = cellStart.getAtIndex(ValueLayout.JAVA_INT, cell) - 1;
+            cellStart.setAtIndex(ValueLayout.JAVA_INT, cell, slot);
+            cellParticles.setAtIndex(ValueLayout.JAVA_INT, slot, i);
+        }
+    }
+
+    /**
+     * Forces the mapped particle state to disk.
+     *
+     * @apiNote Does nothing when the state is not backed by a file.
+     *
+     * @param step Step the current state corresponds to
+     */
+    public void flush(final int step) {
+        header.set(ValueLayout.JAVA_LONG, 3 * Long.BYTES, step);
+        if (header.isMapped()) {
+            header.force();
+            x.force();
+            y.force();
+            theta.force();
+        }
+    }
+
+    /**
+     * Read-only view of the current state.
+     *
+     * @apiNote The view is live: it reflects later steps, so callers that keep
+     *          it past the next step must copy it. Every {@code get} builds a
+     *          new particle; the indexed accessors of {@link Particles} read
+     *          the state without allocating.
+     *
+     * @param replica Replica to view
+     * @return the particles of the replica as of the last completed step
+     */
+    public Particles particles(final int replica) {
+        return new View(replica * n);
+    }
+
+    public int cellOf(final int i) {
+        final var cx = Math.min((int) (getX(i) / Ms), M - 1);
+        final var cy = Math.min((int) (getY(i) / Ms), M - 1);
+        return (i / n) * M * M + cx * M + cy;
+    }
+
+    public int cellStart(final int cell) {
+        return cellStart.getAtIndex(ValueLayout.JAVA_INT, cell);
+    }
+
+    public int cellParticle(final int slot) {
+        return cellParticles.getAtIndex(ValueLayout.JAVA_INT, slot);
+    }
+
+    public int cellNeighbour(final int cell, final int k) {
+        final var offset = cell - cell % (M * M);
+        final var neighbour = cellNeighbours.getAtIndex(ValueLayout.JAVA_INT, (long) (cell - offset) * STENCIL + k);
+        return neighbour < 0 ? neighbour : offset + neighbour;
+    }
+
+    public int stencil() {
+        return STENCIL;
+    }
+
+    /**
+     * @return the number of particles across all replicas
+     */
+    public int size() {
+        return n * replicas;
+    }
+
+    public int particlesPerReplica() {
+        return n;
+    }
+
+    public int replicas() {
+        return replicas;
+    }
+
+    /**
+     * @return the number of cells across all replicas
+     */
+    public int cells() {
+        return M * M * replicas;
+    }
+
+    public double getL() {
+        return L;
+    }
+
+    public double getR() {
+        return r;
+    }
+
+    public double getV() {
+        return v;
+    }
+
+    public double getX(final int i) {
+        return get(x, i);
+    }
+
+    public double getY(final int i) {
+        return get(y, i);
+    }
+
+    public double getTheta(final int i) {
+        return get(theta, i);
+    }
+
+    public double getNextTheta(final int i) {
+        return get(nextTheta, i);
+    }
+
+    public void setX(final int i, final double value) {
+        set(x, i, value);
+    }
+
+    public void setY(final int i, final double value) {
+        set(y, i, value);
+    }
+
+    public void setTheta(final int i, final double value) {
+        set(theta, i, value);
+    }
+
+    public void setNextTheta(final int i, final double value) {
+        set(nextTheta, i, value);
+    }
+
+    /**
+     * @return whether values are stored in single precision
+     */
+    public boolean isSingle() {
+        return single;
+    }
+
+    private double get(final MemorySegment segment, final int i) {
+        return single ? segment.getAtIndex(ValueLayout.JAVA_FLOAT, i) : segment.getAtIndex(ValueLayout.JAVA_DOUBLE, i);
+    }
+
+    private void set(final MemorySegment segment, final int i, final double value) {
+        if (single) {
+            segment.setAtIndex(ValueLayout.JAVA_FLOAT, i, (float) value);
+        } else {
+            segment.setAtIndex(ValueLayout.JAVA_DOUBLE, i, value);
+        }
+    }
+
+    private class View extends AbstractList<Particle> implements Particles, RandomAccess {
+        private final int offset;
+
+        private View(final int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public Particle get(final int i) {
+            return new Particle(getX(i), getY(i), r, v, getTheta(i));
+        }
+
+        @Override
+        public double getX(final int i) {
+            return OffHeapState.this.getX(offset + Objects.checkIndex(i, n));
+        }
+
+        @Override
+        public double getY(final int i) {
+            return OffHeapState.this.getY(offset + Objects.checkIndex(i, n));
+        }
+
+        @Override
+        public double getTheta(final int i) {
+            return OffHeapState.this.getTheta(offset + Objects.checkIndex(i, n));
+        }
+
+        @Override
+        public int size() {
+            return n;
+        }
+    }
+}
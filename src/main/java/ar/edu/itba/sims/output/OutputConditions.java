@@ -0,0 +1,75 @@
+package ar.edu.itba.sims.output;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+//Esta clase representa la configuracion de salida que esta en el campo "output" de initial_conditions.JSON
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class OutputConditions {
+    private String schedule = "stride";
+    private int stride = 5;
+    private int frames = 100;
+    private int threshold;
+    private int strideAfter = 5;
+    private int subsample = 1;
+    private Region region;
+
+    public OutputConditions() {
+    }
+
+    public String getSchedule() {
+        return schedule;
+    }
+
+    public void setSchedule(String schedule) {
+        this.schedule = schedule;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public void setStride(int stride) {
+        this.stride = stride;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public void setFrames(int frames) {
+        this.frames = frames;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getStrideAfter() {
+        return strideAfter;
+    }
+
+    public void setStrideAfter(int strideAfter) {
+        this.strideAfter = strideAfter;
+    }
+
+    public int getSubsample() {
+        return subsample;
+    }
+
+    public void setSubsample(int subsample) {
+        this.subsample = subsample;
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    public void setRegion(Region region) {
+        this.region = region;
+    }
+}
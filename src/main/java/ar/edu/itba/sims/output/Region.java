@@ -0,0 +1,61 @@
+package ar.edu.itba.sims.output;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import ar.edu.itba.sims.models.Particle;
+
+/**
+ * Axis-aligned region of interest of the simulation box.
+ *
+ * Bounds are inclusive on the lower side and exclusive on the upper side.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Region {
+    private double minX;
+    private double maxX;
+    private double minY;
+    private double maxY;
+
+    public Region() {
+    }
+
+    public boolean contains(Particle p) {
+        return contains(p.getX(), p.getY());
+    }
+
+    public boolean contains(double x, double y) {
+        return x >= minX && x < maxX && y >= minY && y < maxY;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public void setMinX(double minX) {
+        this.minX = minX;
+    }
+
+    public double getMaxX() {
+        return maxX;
+    }
+
+    public void setMaxX(double maxX) {
+        this.maxX = maxX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public void setMinY(double minY) {
+        this.minY = minY;
+    }
+
+    public double getMaxY() {
+        return maxY;
+    }
+
+    public void setMaxY(double maxY) {
+        this.maxY = maxY;
+    }
+}
@@ -0,0 +1,102 @@
+package ar.edu.itba.sims.output;
+
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Decides which steps of a simulation are written as frames.
+ */
+public interface Schedule {
+    /**
+     * @param step Step of the simulation, from 0 to the last one inclusive
+     * @return whether the state after the step is written
+     */
+    boolean includes(int step);
+
+    /**
+     * Counts the frames written before a step.
+     *
+     * @param step Step of the simulation
+     * @return the frame number the step is written as, if it is included
+     */
+    default int frame(int step) {
+        var frame = 0;
+        for (int i = 0; i < step; i++) {
+            if (includes(i)) {
+                frame++;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Lists the steps written as frames, in order, so frame {@code f} holds the
+     * state after step {@code steps(last)[f]}.
+     *
+     * @param last Last step of the simulation
+     * @return the included steps from 0 to {@code last}
+     */
+    default int[] steps(int last) {
+        return IntStream.rangeClosed(0, last).filter(this::includes).toArray();
+    }
+
+    /**
+     * Builds the schedule described by the output conditions.
+     *
+     * @param output Output conditions
+     * @param steps  Last step of the simulation
+     * @return the schedule
+     */
+    static Schedule of(final OutputConditions output, final int steps) {
+        return switch (output.getSchedule()) {
+            case "stride" -> stride(output.getStride());
+            case "log" -> log(output.getFrames(), steps);
+            case "threshold" -> threshold(output.getStride(), output.getThreshold(), output.getStrideAfter());
+            case "final" -> step -> step == steps;
+            default -> throw new IllegalArgumentException("Unknown output schedule: " + output.getSchedule());
+        };
+    }
+
+    /**
+     * Every {@code stride} steps, starting from the initial state.
+     */
+    static Schedule stride(final int stride) {
+        if (stride <= 0) {
+            throw new IllegalArgumentException("Output stride must be positive");
+        }
+
+        return step -> step % stride == 0;
+    }
+
+    /**
+     * Every {@code before} steps until {@code threshold}, then every
+     * {@code after} steps.
+     */
+    static Schedule threshold(final int before, final int threshold, final int after) {
+        final var early = stride(before);
+        final var late = stride(after);
+        return step -> step < threshold ? early.includes(step) : late.includes(step - threshold);
+    }
+
+    /**
+     * About {@code frames} steps evenly spaced in logarithmic scale between the
+     * first step and {@code steps}, plus the initial state. Early steps that
+     * round to the same integer are written once.
+     */
+    static Schedule log(final int frames, final int steps) {
+        if (frames <= 0) {
+            throw new IllegalArgumentException("Output frames must be positive");
+        }
+
+        final var included = new BitSet(steps + 1);
+        included.set(0);
+        included.set(steps);
+
+        final var growth = Math.log(Math.max(1, steps)) / Math.max(1, frames - 1);
+        for (int f = 0; f < frames; f++) {
+            included.set((int) Math.min(steps, Math.round(Math.exp(f * growth))));
+        }
+
+        return included::get;
+    }
+}
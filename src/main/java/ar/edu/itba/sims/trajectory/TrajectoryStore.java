@@ -0,0 +1,370 @@
+package ar.edu.itba.sims.trajectory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+
+import ar.edu.itba.sims.InitialConditions;
+import ar.edu.itba.sims.InitialStateParser;
+import ar.edu.itba.sims.ResultCache;
+import ar.edu.itba.sims.output.Schedule;
+
+/**
+ * Per-particle store of a finished trajectory.
+ *
+ * Frames hold every particle at one step, so reading the history of a single
+ * particle from {@code time_slices} means parsing every frame. The store
+ * transposes them into a chunked column-major file: frames are grouped in time
+ * blocks, and within a block the series of every field of every particle is
+ * contiguous, so a series is fetched with one sequential read per block.
+ *
+ * The file is laid out as a little-endian header
+ * {@code [n, frames, fields, block, L]} followed by the step of every frame and
+ * then, for every block, the series of each of the {@link #FIELDS} of every
+ * particle. Besides the wrapped positions and angle it holds the unwrapped
+ * positions {@code xu} and {@code yu}, which undo the periodic boundaries of
+ * the simulation box so displacements such as the mean squared displacement
+ * are measured correctly.
+ *
+ * Usage: {@code TrajectoryStore transpose [block]} converts the frames of the
+ * input conditions in blocks of {@code block} frames, by default as many as
+ * fit in {@code trajectory.memory} MiB (256 by default);
+ * {@code TrajectoryStore series <particle> <field>} prints one series.
+ */
+public class TrajectoryStore implements Closeable {
+    private static final String framesPath = "src/main/resources/time_slices/";
+    private static final String directoryPath = "src/main/resources/trajectories/";
+
+    public static final List<String> FIELDS = List.of("x", "y", "theta", "xu", "yu");
+
+    private static final int HEADER_SIZE = 5 * Long.BYTES;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final FileChannel channel;
+    private final int n;
+    private final int frames;
+    private final int block;
+    private final double L;
+    private final int[] steps;
+
+    public static void main(String[] args) throws IOException {
+        final var ic = InitialStateParser.parse(System.getProperty("input", "initial_conditions.json"));
+
+        if (args.length < 1) {
+            System.err.println("Usage: TrajectoryStore transpose [block] | series <particle> <field>");
+            System.exit(2);
+        }
+
+        switch (args[0]) {
+            case "transpose" -> {
+                final var block = args.length > 1 ? Integer.parseInt(args[1])
+                        : block(ic.getN(), Long.getLong("trajectory.memory", 256) * 1024 * 1024);
+                transpose(ic, path(ic), block);
+                System.out.println("Trajectory transposed to \"" + path(ic).getFileName() + '"');
+            }
+            case "series" -> {
+                try (final var store = open(path(ic))) {
+                    final var series = store.series(Integer.parseInt(args[1]), args[2]);
+                    final var sb = new StringBuilder();
+                    for (int f = 0; f < series.length; f++) {
+                        sb.append(String.format(Locale.ROOT, "%d %.16f%n", store.steps[f], series[f]));
+                    }
+                    System.out.print(sb);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown command: " + args[0]);
+        }
+    }
+
+    private TrajectoryStore(final FileChannel channel, final int n, final int frames, final int block,
+            final double L, final int[] steps) {
+        this.channel = channel;
+        this.n = n;
+        this.frames = frames;
+        this.block = block;
+        this.L = L;
+        this.steps = steps;
+    }
+
+    /**
+     * @return the store of the input conditions
+     */
+    public static Path path(final InitialConditions ic) {
+        final var filename = "%s N-%d L-%.2f Ruido-%.2f.bin".formatted(ic.getInteraction(), ic.getN(), ic.getL(),
+                ic.getNoise());
+        return Paths.get(directoryPath, filename);
+    }
+
+    /**
+     * @param n      Number of particles
+     * @param memory Bytes a block may take
+     * @return the number of frames per block that fit in {@code memory}, at
+     *         least one
+     */
+    public static int block(final int n, final long memory) {
+        final var frame = (long) Math.max(1, n) * FIELDS.size() * Double.BYTES;
+        return (int) Math.max(1, Math.min(memory, Integer.MAX_VALUE) / frame);
+    }
+
+    /**
+     * Transposes the frames in {@code time_slices} into a store.
+     *
+     * Every block is transposed in memory and written with a single
+     * sequential write, so memory is bounded by the block and not by the
+     * length of the trajectory; a block of one frame is the smallest there is.
+     *
+     * @param ic    Input conditions the frames were written with
+     * @param file  Store to write
+     * @param block Number of frames per block
+     * @throws IllegalArgumentException if the frames were not written by a
+     *                                  complete run of the input conditions,
+     *                                  do not follow the same particles, are
+     *                                  too far apart to unwrap the positions,
+     *                                  or a block does not fit in a buffer
+     */
+    public static void transpose(final InitialConditions ic, final Path file, final int block) throws IOException {
+        if (block <= 0) {
+            throw new IllegalArgumentException("Block must be positive");
+        }
+
+        // The box and schedule of the conditions are used to name and unwrap the frames, so they must match
+        if (!ResultCache.isSource(ic, Path.of(framesPath))) {
+            throw new IllegalArgumentException("Frames in " + framesPath
+                    + " were not written by a complete run of the input conditions");
+        }
+
+        // A region keeps different particles on every frame, so series would mix them
+        if (ic.getOutput().getRegion() != null) {
+            throw new IllegalArgumentException("Frames filtered by region do not follow the same particles");
+        }
+
+        final var steps = steps(ic);
+        final var frames = steps.length;
+        if (frames == 0) {
+            throw new IllegalArgumentException("No frames found in " + framesPath);
+        }
+
+        // Unwrapping assumes no particle crosses more than half the box between frames
+        final var L = ic.getL();
+        for (int f = 1; f < frames; f++) {
+            if (ic.getV() * (steps[f] - steps[f - 1]) >= L / 2) {
+                throw new IllegalArgumentException("Frames at steps " + steps[f - 1] + " and " + steps[f]
+                        + " are too far apart to unwrap positions");
+            }
+        }
+
+        final var n = InitialStateParser.parseParticles(0).size();
+        final var fields = FIELDS.size();
+        final var frameSize = (long) n * fields * Double.BYTES;
+        if (frameSize * Math.min(block, frames) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A block of " + block + " frames of " + n + " particles is too large");
+        }
+
+        final var previousX = new double[n];
+        final var previousY = new double[n];
+        final var shiftX = new double[n];
+        final var shiftY = new double[n];
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (final var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final var header = ByteBuffer.allocate(HEADER_SIZE + frames * Long.BYTES).order(ORDER);
+            header.putLong(n).putLong(frames).putLong(fields).putLong(block).putDouble(L);
+            for (final var step : steps) {
+                header.putLong(step);
+            }
+            write(channel, header.flip(), 0);
+
+            final var data = HEADER_SIZE + (long) frames * Long.BYTES;
+            final var chunk = ByteBuffer.allocate((int) (frameSize * Math.min(block, frames))).order(ORDER);
+
+            for (int first = 0; first < frames; first += block) {
+                final var count = Math.min(block, frames - first);
+                chunk.clear();
+
+                for (int t = 0; t < count; t++) {
+                    final var frame = first + t;
+                    final var particles = InitialStateParser.parseParticles(frame);
+                    if (particles.size() != n) {
+                        throw new IllegalArgumentException("Frame " + frame + " holds " + particles.size()
+                                + " particles instead of " + n);
+                    }
+
+                    for (int i = 0; i < n; i++) {
+                        final var p = particles.get(i);
+
+                        if (frame > 0) {
+                            shiftX[i] += unwrap(p.getX() - previousX[i], L);
+                            shiftY[i] += unwrap(p.getY() - previousY[i], L);
+                        }
+                        previousX[i] = p.getX();
+                        previousY[i] = p.getY();
+
+                        // Value t of the series of field k of particle i within the block
+                        final var base = (i * fields * count + t) * Double.BYTES;
+                        final var stride = count * Double.BYTES;
+                        chunk.putDouble(base, p.getX());
+                        chunk.putDouble(base + stride, p.getY());
+                        chunk.putDouble(base + 2 * stride, p.getTheta());
+                        chunk.putDouble(base + 3 * stride, p.getX() + shiftX[i]);
+                        chunk.putDouble(base + 4 * stride, p.getY() + shiftY[i]);
+                    }
+                }
+
+                chunk.limit((int) (frameSize * count));
+                write(channel, chunk, data + frameSize * first);
+            }
+        }
+    }
+
+    /**
+     * Opens a store for reading.
+     */
+    public static TrajectoryStore open(final Path file) throws IOException {
+        final var channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            final var header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+            read(channel, header, 0);
+            header.flip();
+
+            final var n = (int) header.getLong();
+            final var frames = (int) header.getLong();
+            final var fields = (int) header.getLong();
+            final var block = (int) header.getLong();
+            final var L = header.getDouble();
+            if (fields != FIELDS.size()) {
+                throw new IOException("Store " + file + " holds " + fields + " fields instead of " + FIELDS.size());
+            }
+
+            final var buffer = ByteBuffer.allocate(frames * Long.BYTES).order(ORDER);
+            read(channel, buffer, HEADER_SIZE);
+            buffer.flip();
+
+            final var steps = new int[frames];
+            for (int f = 0; f < frames; f++) {
+                steps[f] = (int) buffer.getLong();
+            }
+
+            return new TrajectoryStore(channel, n, frames, block, L, steps);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the whole series of a field of a particle, with one read per
+     * block.
+     *
+     * @param particle Index of the particle in the frames
+     * @param field    One of {@link #FIELDS}
+     * @return the value of the field on every frame
+     */
+    public double[] series(final int particle, final String field) throws IOException {
+        final var k = FIELDS.indexOf(field);
+        if (k < 0) {
+            throw new IllegalArgumentException("Unknown field: " + field);
+        }
+        if (particle < 0 || particle >= n) {
+            throw new IndexOutOfBoundsException("Particle " + particle + " out of " + n);
+        }
+
+        final var data = HEADER_SIZE + (long) frames * Long.BYTES;
+        final var frameSize = (long) n * FIELDS.size() * Double.BYTES;
+        final var buffer = ByteBuffer.allocate(frames * Double.BYTES).order(ORDER);
+
+        for (int first = 0; first < frames; first += block) {
+            final var count = Math.min(block, frames - first);
+            final var offset = data + frameSize * first
+                    + ((long) particle * FIELDS.size() + k) * count * Double.BYTES;
+            read(channel, buffer.slice(first * Double.BYTES, count * Double.BYTES), offset);
+        }
+
+        final var series = new double[frames];
+        buffer.asDoubleBuffer().get(series);
+        return series;
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public double getL() {
+        return L;
+    }
+
+    /**
+     * @return the step of every frame
+     */
+    public int[] getSteps() {
+        return steps.clone();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Lists the steps written as frames, in order.
+     */
+    private static int[] steps(final InitialConditions ic) {
+        final var files = new File(framesPath).listFiles((dir, name) -> name.endsWith(".txt"));
+        final var count = files == null ? 0 : files.length;
+
+        final var steps = Schedule.of(ic.getOutput(), ic.getSteps()).steps(ic.getSteps());
+        if (steps.length != count) {
+            throw new IllegalArgumentException("Found " + count + " frames but the output schedule writes "
+                    + steps.length);
+        }
+
+        return steps;
+    }
+
+    /**
+     * @return the displacement across periodic boundaries that explains a jump
+     *         in a wrapped coordinate
+     */
+    private static double unwrap(final double jump, final double L) {
+        if (jump > L / 2) {
+            return -L;
+        }
+        if (jump < -L / 2) {
+            return L;
+        }
+        return 0;
+    }
+
+    private static void write(final FileChannel channel, final ByteBuffer buffer, final long offset)
+            throws IOException {
+        var position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void read(final FileChannel channel, final ByteBuffer buffer, final long offset)
+            throws IOException {
+        var position = offset;
+        while (buffer.hasRemaining()) {
+            final var read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of trajectory store");
+            }
+            position += read;
+        }
+    }
+}
@@ -4,25 +4,24 @@ import sys
 
 import numpy as np
 
-from resources import path
+from resources import order_parameter, path
 
 if len(sys.argv) != 3:
-    print("Usage: python average.py <filename> <start_index>")
+    print("Usage: python average.py <filename> <start_step>")
     sys.exit(1)
 
 filepath = path("order_parameter", sys.argv[1])
-start = int(int(sys.argv[2]) / 5)
+start = int(sys.argv[2])
 
 if not os.path.isfile(filepath):
     print(f"File {filepath} does not exist.")
     sys.exit(1)
 
-with open(filepath, 'r') as f:
-    numbers = [float(line.strip()) for line in f if line.strip()]
+steps, numbers = order_parameter(filepath)
 
-if start < 0 or start >= len(numbers):
-    print(f"Start index {start} is out of bounds for the data length {len(numbers)}.")
+if start < 0 or len(steps) == 0 or start > steps[-1]:
+    print(f"Start step {start} is out of bounds for the written steps.")
     sys.exit(1)
 
-average = np.mean(numbers[start:])
+average = np.mean(numbers[steps >= start])
 print(average)
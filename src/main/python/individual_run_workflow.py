@@ -24,6 +24,8 @@ from typing import Dict, List, Tuple, Optional
 from dataclasses import dataclass
 import shutil
 
+from resources import is_cached, order_parameter
+
 @dataclass
 class RunResult:
     config_file: str
@@ -131,6 +133,9 @@ class IndividualRunWorkflow:
         print(f"\n>>> Running simulation...")
         print(f">>> Config: {os.path.basename(config_file)}")
         
+        # Seeded configs already simulated by this code are served by the cache
+        cached = is_cached(config_file, config_rel_path, project_root)
+        
         # Run main simulation
         main_cmd = [
             "mvn.cmd", "exec:java",
@@ -139,19 +144,23 @@ class IndividualRunWorkflow:
             "-Dexec.cleanupDaemonThreads=true"
         ]
         
-        try:
-            result = subprocess.run(main_cmd, cwd=project_root, capture_output=True, text=True, check=True)
-            print("✓ Simulation completed")
-        except subprocess.CalledProcessError as e:
-            print(f"✗ Simulation failed: {e}")
-            print(f"Stdout: {e.stdout}")
-            print(f"Stderr: {e.stderr}")
-            return False
+        if cached:
+            print("✓ Cached result found, skipping simulation")
+        else:
+            try:
+                result = subprocess.run(main_cmd, cwd=project_root, capture_output=True, text=True, check=True)
+                print("✓ Simulation completed")
+            except subprocess.CalledProcessError as e:
+                print(f"✗ Simulation failed: {e}")
+                print(f"Stdout: {e.stdout}")
+                print(f"Stderr: {e.stderr}")
+                return False
         
         # Run observables calculation
         obs_cmd = [
             "mvn.cmd", "exec:java", 
             "-Dexec.mainClass=ar.edu.itba.sims.Observables",
+            f"-Dinput={config_rel_path}",
             "-Dexec.args=v_a",
             "-Dexec.cleanupDaemonThreads=true"
         ]
@@ -186,10 +195,9 @@ class IndividualRunWorkflow:
         
         try:
             # Load v_a data for analysis
-            with open(order_file, 'r') as f:
-                va_values = [float(line.strip()) for line in f if line.strip()]
+            steps, va_values = order_parameter(order_file)
             
-            if not va_values:
+            if len(va_values) == 0:
                 print("No data in order parameter file")
                 return None
             
@@ -211,11 +219,11 @@ class IndividualRunWorkflow:
             
             # Get user input for cutoff
             print(f"\nOrder parameter evolution plot displayed via orders.py.")
-            print(f"Available data points: {len(va_values)} (every 5th simulation step)")
+            print(f"Available data points: {len(va_values)} (steps {steps[0]} to {steps[-1]})")
             print()
             print("Choose the cutoff step where steady-state begins.")
             print("Enter the STEP NUMBER from the simulation, e.g., 500, 1000, 2500...")
-            print("(This will be converted to the appropriate file line number)")
+            print("(Frames written from that step onwards are averaged)")
             
             while True:
                 try:
@@ -224,21 +232,19 @@ class IndividualRunWorkflow:
                         return None
                     
                     cutoff_step = int(cutoff_input)
-                    cutoff_index = cutoff_step // 5  # Convert step to file line index
                     
                     if cutoff_step < 0:
                         print("Cutoff step must be non-negative")
                         continue
-                    elif cutoff_index >= len(va_values):
-                        max_step = (len(va_values) - 1) * 5
-                        print(f"Cutoff step too large. Max available step: {max_step}")
+                    elif cutoff_step > steps[-1]:
+                        print(f"Cutoff step too large. Max available step: {steps[-1]}")
                         continue
                     else:
                         # Show what the cutoff means
-                        remaining_points = len(va_values) - cutoff_index
-                        steady_state_data = va_values[cutoff_index:]
+                        steady_state_data = va_values[steps >= cutoff_step]
+                        remaining_points = len(steady_state_data)
                         mean_va = np.mean(steady_state_data)
-                        print(f"Using cutoff at step {cutoff_step} (file line {cutoff_index}):")
+                        print(f"Using cutoff at step {cutoff_step}:")
                         print(f"  - Remaining data points: {remaining_points}")
                         print(f"  - Steady-state mean: {mean_va:.6f}")
                         
@@ -264,14 +270,12 @@ class IndividualRunWorkflow:
         
         order_file = order_files[0]
         
-        with open(order_file, 'r') as f:
-            va_values = [float(line.strip()) for line in f if line.strip()]
+        steps, va_values = order_parameter(order_file)
         
-        cutoff_index = cutoff_step // 5  # Convert step to file line index
-        if cutoff_index >= len(va_values):
-            raise ValueError(f"Cutoff step {cutoff_step} (line {cutoff_index}) beyond data length {len(va_values)}")
+        if len(steps) == 0 or cutoff_step > steps[-1]:
+            raise ValueError(f"Cutoff step {cutoff_step} beyond the last written step")
         
-        steady_state_data = va_values[cutoff_index:]
+        steady_state_data = va_values[steps >= cutoff_step]
         return float(np.mean(steady_state_data))
     
     def process_single_run(self, config_file: str) -> bool:
@@ -7,7 +7,7 @@ import os
 
 import sys
 
-from resources import path
+from resources import order_parameter, path
 
 fig, ax = plt.subplots()
 
@@ -20,11 +20,8 @@ for filename in sources:
     if not os.path.isfile(filepath):
         continue
 
-    with open(filepath, 'r') as f:
-        numbers = [float(line.strip()) for line in f if line.strip()]
-
-    y_axis = list(range(0, len(numbers) * 5, 5))
-    ax.plot(y_axis, numbers)
+    steps, numbers = order_parameter(filepath)
+    ax.plot(steps, numbers)
 
 def sci_notation(val, _):
     if val == 0:
@@ -48,7 +48,7 @@ def check_java_installation():
     maven_ok = run_command(["mvn.cmd", "--version"], "Maven version check")
     
     if not java_ok or not maven_ok:
-        print("Error: Java 21+ and Maven are required for this study")
+        print("Error: Java 22+ and Maven are required for this study")
         print("Please install them and try again")
         return False
     
@@ -97,24 +97,29 @@ def run_single_simulation(config_file):
     
     print(f"Processing config: {os.path.basename(config_file)}")
     
-    # Run main simulation
-    main_success = run_command([
-        "mvn.cmd", "exec:java",
-        "-Dexec.mainClass=ar.edu.itba.sims.Main",
-        f"-Dinput={config_path}",
-        "-Dexec.cleanupDaemonThreads=true"
-    ], f"Main simulation for {os.path.basename(config_file)}", cwd=project_root)
-    
-    if not main_success:
-        print(f"Failed to run main simulation for {config_file}")
-        return False
-    
-    print(f"✓ Main simulation completed for {os.path.basename(config_file)}");
+    # Seeded configs already simulated by this code are served by the cache
+    if ittybittypatch.is_cached(config_file, config_path, project_root):
+        print(f"✓ Cached result found for {os.path.basename(config_file)}, skipping simulation")
+    else:
+        # Run main simulation
+        main_success = run_command([
+            "mvn.cmd", "exec:java",
+            "-Dexec.mainClass=ar.edu.itba.sims.Main",
+            f"-Dinput={config_path}",
+            "-Dexec.cleanupDaemonThreads=true"
+        ], f"Main simulation for {os.path.basename(config_file)}", cwd=project_root)
+        
+        if not main_success:
+            print(f"Failed to run main simulation for {config_file}")
+            return False
+        
+        print(f"✓ Main simulation completed for {os.path.basename(config_file)}");
     
     # Run observables (expects "v_a" as first argument)
     observables_success = run_command([
         "mvn.cmd", "exec:java", 
         "-Dexec.mainClass=ar.edu.itba.sims.Observables",
+        f"-Dinput={config_path}",
         "-Dexec.args=v_a",
         "-Dexec.cleanupDaemonThreads=true"
     ], f"Observables for {os.path.basename(config_file)}", cwd=project_root)
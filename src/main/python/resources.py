@@ -2,8 +2,12 @@ from functools import cache
 
 import json
 
+import subprocess
+
 import os.path as pth
 
+import numpy as np
+
 def path(*name: str):
     """
     Returns the absolute path to the Java resource file.
@@ -37,3 +41,48 @@ def config(file: str | None = None) -> dict:
     except Exception as e:
         print(f"An unexpected error occurred: {e}")
         raise e
+
+def order_parameter(filepath: str) -> tuple[np.ndarray, np.ndarray]:
+    """
+    Reads an order parameter file written by Observables.
+
+    Every line holds a step and the v_a of the frame written at that step.
+    Files written before steps were recorded hold v_a alone, one value every
+    5 steps.
+
+    :param filepath: Path to the order parameter file.
+    :return: The steps and the v_a values, as arrays of the same length.
+    """
+    data = np.loadtxt(filepath, ndmin=2)
+    if data.size == 0:
+        return np.array([], dtype=int), np.array([])
+
+    if data.shape[1] == 1:
+        return np.arange(len(data)) * 5, data[:, 0]
+
+    return data[:, 0].astype(int), data[:, 1]
+
+def is_cached(config_file: str, config_rel_path: str, project_root) -> bool:
+    """
+    Checks whether the Java result cache already holds v_a for a config.
+
+    Unseeded configs are never cached, so they are answered without launching
+    the JVM.
+
+    :param config_file: Path to the config, to read its seed.
+    :param config_rel_path: Path to the config as passed to Java in -Dinput.
+    :param project_root: Directory Maven runs from.
+    :return: Whether v_a of the config is cached.
+    """
+    with open(config_file, 'r') as f:
+        if json.load(f).get("seed") is None:
+            return False
+
+    result = subprocess.run([
+        "mvn.cmd", "exec:java",
+        "-Dexec.mainClass=ar.edu.itba.sims.ResultCache",
+        f"-Dinput={config_rel_path}",
+        "-Dexec.args=contains v_a",
+        "-Dexec.cleanupDaemonThreads=true"
+    ], cwd=project_root, capture_output=True, text=True)
+    return result.returncode == 0
@@ -4,6 +4,8 @@ import re
 from typing import Dict, List, Tuple
 from dataclasses import dataclass
 
+from resources import order_parameter
+
 @dataclass
 class StatisticsSummary:
     parameter_value: float
@@ -85,13 +87,14 @@ class ParameterStudyAnalyzer:
         steady_state_values = []
         
         for order_file in order_files:
-            va_series = self._load_order_parameter_series(order_file)
-            if va_series is not None and len(va_series) > 0:
+            series = self._load_order_parameter_series(order_file)
+            if series is not None:
+                steps, va_series = series
                 all_va_values.extend(va_series)
                 
-                # Extract steady-state portion (skip first 20% of simulation)
-                skip_steps = int(len(va_series) * self.steady_state_fraction)
-                steady_state = va_series[skip_steps:] if skip_steps < len(va_series) else va_series
+                # Extract steady-state portion (skip first 20% of simulation steps, frames may not be evenly spaced)
+                cutoff = steps[-1] * self.steady_state_fraction
+                steady_state = va_series[steps >= cutoff]
                 steady_state_values.extend(steady_state)
         
         if not all_va_values:
@@ -118,12 +121,11 @@ class ParameterStudyAnalyzer:
             steady_state_std=steady_std
         )
     
-    def _load_order_parameter_series(self, filepath: str) -> np.ndarray:
-        """Load order parameter time series from file."""
+    def _load_order_parameter_series(self, filepath: str) -> Tuple[np.ndarray, np.ndarray]:
+        """Load order parameter time series from file, as steps and values."""
         try:
-            with open(filepath, 'r') as f:
-                values = [float(line.strip()) for line in f if line.strip()]
-            return np.array(values) if values else None
+            steps, values = order_parameter(filepath)
+            return (steps, values) if len(values) > 0 else None
         except (FileNotFoundError, ValueError) as e:
             print(f"Error loading {filepath}: {e}")
             return None